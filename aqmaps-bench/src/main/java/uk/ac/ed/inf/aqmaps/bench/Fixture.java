@@ -0,0 +1,254 @@
+package uk.ac.ed.inf.aqmaps.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.mapbox.geojson.*;
+
+import uk.ac.ed.inf.aqmaps.*;
+
+// The inputs to planning a single day, loaded from one of three sources:
+//   campus             - the campus-scale day bundled in src/main/resources/fixtures/campus (4 zones, 33 sensors)
+//   synthetic-Z-S      - Z convex no-fly zones and S sensors generated inside the drone confinement area from a fixed seed
+//   recorded:DIR:DATE  - a day saved from the web server in its maps/words/buildings layout, e.g. recorded:/data/webserver:2020-01-01
+// Every source is deterministic, so a fixture name always gives exactly the same inputs.
+public class Fixture {
+
+	// The confinement area the drone may not leave
+	static final double MIN_LNG = -3.192473;
+	static final double MAX_LNG = -3.184319;
+	static final double MIN_LAT = 55.942617;
+	static final double MAX_LAT = 55.946233;
+
+	static final Coords CAMPUS_START = new Coords(-3.1878, 55.9444);
+
+	private static final double MOVE = 0.0003;
+	private static final double CLOSE_RANGE = 0.0002;
+
+	private final String name;
+	private final List<NoFlyZone> zones;
+	private final Sensor[] sensors;
+	private final List<Coords> coords;
+	private final Coords start;
+
+	private Fixture(String name, List<NoFlyZone> zones, Sensor[] sensors, List<Coords> coords, Coords start) {
+		this.name = name;
+		this.zones = zones;
+		this.sensors = sensors;
+		this.coords = coords;
+		this.start = start;
+	}
+
+	public static Fixture load(String spec) {
+		try {
+			if(spec.equals("campus")) {
+				return campus();
+			} else if(spec.startsWith("synthetic-")) {
+				String[] sizes = spec.substring("synthetic-".length()).split("-");
+				return synthetic(Integer.parseInt(sizes[0]), Integer.parseInt(sizes[1]));
+			} else if(spec.startsWith("recorded:")) {
+				var split = spec.lastIndexOf(':');
+				return recorded(Paths.get(spec.substring("recorded:".length(), split)), LocalDate.parse(spec.substring(split + 1)));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not load fixture " + spec, e);
+		}
+		throw new IllegalArgumentException("Unknown fixture " + spec + ", expected campus, synthetic-Z-S or recorded:DIR:DATE");
+	}
+
+	private static Fixture campus() throws IOException {
+		List<NoFlyZone> zones = parseZones(readResource("no-fly-zones.geojson"));
+		Sensor[] sensors = new Gson().fromJson(readResource("air-quality-data.json"), Sensor[].class);
+		JsonObject words = new Gson().fromJson(readResource("words.json"), JsonObject.class);
+		List<Coords> coords = new ArrayList<Coords>();
+		for(Sensor sensor : sensors) {
+			coords.add(parseCoords(words.getAsJsonObject(sensor.getLocation())));
+		}
+		return new Fixture("campus", zones, sensors, coords, CAMPUS_START);
+	}
+
+	private static Fixture recorded(Path dir, LocalDate date) throws IOException {
+		List<NoFlyZone> zones = parseZones(Files.readString(dir.resolve("buildings/no-fly-zones.geojson")));
+		Path day = dir.resolve(String.format("maps/%d/%02d/%02d/air-quality-data.json", date.getYear(), date.getMonthValue(), date.getDayOfMonth()));
+		Sensor[] sensors = new Gson().fromJson(Files.readString(day), Sensor[].class);
+		List<Coords> coords = new ArrayList<Coords>();
+		for(Sensor sensor : sensors) {
+			Path details = dir.resolve("words").resolve(sensor.getLocation().replace('.', '/')).resolve("details.json");
+			coords.add(parseCoords(new Gson().fromJson(Files.readString(details), JsonObject.class).getAsJsonObject("coordinates")));
+		}
+		return new Fixture("recorded:" + dir + ":" + date, zones, sensors, coords, CAMPUS_START);
+	}
+
+	// Generates zones as regular-sided convex polygons at random centres, kept far enough apart that the drone can always pass between them
+	// Sensors and the start point are placed clear of every zone, so each leg has somewhere to finish.
+	static Fixture synthetic(int zoneCount, int sensorCount) {
+		Random random = new Random(31L * zoneCount + sensorCount);
+		final double margin = MOVE;
+		List<double[]> circles = new ArrayList<double[]>(); // centre lng, centre lat, radius
+		List<NoFlyZone> zones = new ArrayList<NoFlyZone>();
+		for(int attempt = 0; zones.size() < zoneCount && attempt < 100000; attempt++) {
+			var radius = 0.00005 + random.nextDouble() * 0.0001;
+			var lng = MIN_LNG + margin + radius + random.nextDouble() * (MAX_LNG - MIN_LNG - 2 * (margin + radius));
+			var lat = MIN_LAT + margin + radius + random.nextDouble() * (MAX_LAT - MIN_LAT - 2 * (margin + radius));
+			if(nearCircle(circles, lng, lat, radius + MOVE)) continue;
+			circles.add(new double[] {lng, lat, radius});
+			zones.add(polygon("zone" + zones.size(), lng, lat, radius, 4 + random.nextInt(6), random.nextDouble() * 2 * Math.PI));
+		}
+		if(zones.size() < zoneCount) {
+			throw new IllegalArgumentException("Could not fit " + zoneCount + " zones in the confinement area");
+		}
+
+		Sensor[] sensors = new Sensor[sensorCount];
+		List<Coords> coords = new ArrayList<Coords>();
+		for(int i = 0; i < sensorCount; i++) {
+			sensors[i] = new Sensor("s" + i + ".synthetic.fixture", random.nextDouble() * 100, String.format(Locale.ROOT, "%.2f", random.nextDouble() * 255));
+			coords.add(freePoint(random, circles));
+		}
+		Coords start = freePoint(random, circles);
+		return new Fixture("synthetic-" + zoneCount + "-" + sensorCount, zones, sensors, coords, start);
+	}
+
+	// Writes the fixture out in the web server's maps/words/buildings layout, with the same sensors on every given date
+	// This lets the fixture be served by StandInServer, or by the real web server.
+	public void writeServerLayout(Path root, List<LocalDate> dates) throws IOException {
+		Gson gson = new Gson();
+		List<Feature> features = new ArrayList<Feature>();
+		for(NoFlyZone zone : zones) {
+			List<Point> ring = new ArrayList<Point>();
+			for(Coords point : zone.getPointList()) {
+				ring.add(Point.fromLngLat(point.getLng(), point.getLat()));
+			}
+			List<List<Point>> rings = new ArrayList<List<Point>>();
+			rings.add(ring);
+			Feature feature = Feature.fromGeometry(Polygon.fromLngLats(rings));
+			feature.addStringProperty("name", zone.getName());
+			features.add(feature);
+		}
+		write(root.resolve("buildings/no-fly-zones.geojson"), FeatureCollection.fromFeatures(features).toJson());
+
+		String sensorData = gson.toJson(sensors);
+		for(LocalDate date : dates) {
+			write(root.resolve(String.format("maps/%d/%02d/%02d/air-quality-data.json", date.getYear(), date.getMonthValue(), date.getDayOfMonth())), sensorData);
+		}
+
+		for(int i = 0; i < sensors.length; i++) {
+			JsonObject point = new JsonObject();
+			point.addProperty("lng", coords.get(i).getLng());
+			point.addProperty("lat", coords.get(i).getLat());
+			JsonObject details = new JsonObject();
+			details.add("words", new JsonPrimitive(sensors[i].getLocation()));
+			details.add("coordinates", point);
+			write(root.resolve("words").resolve(sensors[i].getLocation().replace('.', '/')).resolve("details.json"), gson.toJson(details));
+		}
+	}
+
+	private static void write(Path file, String text) throws IOException {
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, text);
+	}
+
+	private static NoFlyZone polygon(String name, double lng, double lat, double radius, int sides, double rotation) {
+		List<Point> ring = new ArrayList<Point>();
+		for(int i = 0; i < sides; i++) {
+			var angle = rotation + 2 * Math.PI * i / sides;
+			ring.add(Point.fromLngLat(lng + radius * Math.cos(angle), lat + radius * Math.sin(angle)));
+		}
+		ring.add(ring.get(0));
+		List<List<Point>> rings = new ArrayList<List<Point>>();
+		rings.add(ring);
+		return new NoFlyZone(Polygon.fromLngLats(rings), name);
+	}
+
+	private static Coords freePoint(Random random, List<double[]> circles) {
+		while(true) {
+			var lng = MIN_LNG + MOVE + random.nextDouble() * (MAX_LNG - MIN_LNG - 2 * MOVE);
+			var lat = MIN_LAT + MOVE + random.nextDouble() * (MAX_LAT - MIN_LAT - 2 * MOVE);
+			if(!nearCircle(circles, lng, lat, CLOSE_RANGE + MOVE)) {
+				return new Coords(lng, lat);
+			}
+		}
+	}
+
+	// Checks whether a point is within the given clearance of the edge of any circle
+	private static boolean nearCircle(List<double[]> circles, double lng, double lat, double clearance) {
+		for(double[] c : circles) {
+			if(Math.hypot(lng - c[0], lat - c[1]) < c[2] + clearance) return true;
+		}
+		return false;
+	}
+
+	private static Coords parseCoords(JsonObject coords) {
+		return new Coords(coords.get("lng").getAsDouble(), coords.get("lat").getAsDouble());
+	}
+
+	// Zones are read with the same streaming reader ServerHandler uses on the server's response
+	private static List<NoFlyZone> parseZones(String geojson) throws IOException {
+		return ServerDataReader.readNoFlyZones(new JsonReader(new StringReader(geojson)));
+	}
+
+	private static String readResource(String file) throws IOException {
+		try(InputStream in = Fixture.class.getResourceAsStream("/fixtures/campus/" + file)) {
+			if(in == null) throw new IOException("Missing fixture resource " + file);
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<NoFlyZone> getZones() {
+		return zones;
+	}
+
+	public Sensor[] getSensors() {
+		return sensors;
+	}
+
+	// Returns a fresh copy of the sensor coordinates, as FlightController inserts the start point into the list it is given
+	public List<Coords> getCoords() {
+		return new ArrayList<Coords>(coords);
+	}
+
+	// The sensor names in FlightController's order, where index 0 is the start point
+	public List<String> getSensorNames() {
+		List<String> names = new ArrayList<String>();
+		names.add("null");
+		for(Sensor sensor : sensors) {
+			names.add(sensor.getLocation());
+		}
+		return names;
+	}
+
+	public Coords getStart() {
+		return start;
+	}
+
+	// Builds the sensor markers exactly as DayPlanner does
+	public List<Feature> getMarkers() {
+		GeoJSONHandler geo = new GeoJSONHandler(start);
+		List<Feature> markers = new ArrayList<Feature>();
+		for(int i = 0; i < sensors.length; i++) {
+			Feature marker = geo.generateMarker(sensors[i], coords.get(i));
+			marker.addStringProperty("text", Integer.toString(i + 1));
+			markers.add(marker);
+		}
+		return markers;
+	}
+
+}
@@ -0,0 +1,85 @@
+package uk.ac.ed.inf.aqmaps.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import uk.ac.ed.inf.aqmaps.*;
+
+// Measures the two halves of planning a day's route
+// pathMatrix constructs a FlightController, which is almost entirely the cost of estimating the leg between every pair of points.
+// generateOrder builds the sorted edges circuit, improves it within the given budget, and constructs the final legs.
+// replanMovedSensor moves one sensor back and forth, repairing the previous route each time rather than planning it again from scratch.
+// The controller's progress output is discarded while benchmarking, so the console does not dominate the figures.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FlightControllerBenchmark {
+
+	@Param({"campus", "synthetic-20-60", "synthetic-40-150"})
+	public String fixture;
+
+	@Param({"1", "4"})
+	public int threads;
+
+	@Param({"0", "50"})
+	public long improveMs;
+
+	@Param({"SIMULATED", "VISIBILITY"})
+	public FlightController.Estimates estimates;
+
+	private Fixture data;
+	private NoFlyIndex index;
+	private FlightController controller;
+	private FlightController replanned;
+	private Coords[] sensorPositions;
+	private int replans = 0;
+	private PrintStream console;
+
+	@Setup
+	public void setup() {
+		console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		data = Fixture.load(fixture);
+		index = new NoFlyIndex(data.getZones());
+		controller = newController();
+		controller.setImprovementBudget(improveMs);
+		replanned = newController();
+		replanned.setImprovementBudget(improveMs);
+		replanned.generateOrder();
+		Coords sensor = data.getCoords().get(0);
+		sensorPositions = new Coords[] {sensor, new Coords(sensor.getLng() + 0.0004, sensor.getLat() - 0.0002)};
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(console);
+	}
+
+	@Benchmark
+	public FlightController pathMatrix() {
+		return newController();
+	}
+
+	@Benchmark
+	public List<FlightPath> generateOrder() {
+		return controller.generateOrder();
+	}
+
+	@Benchmark
+	public List<FlightPath> replanMovedSensor() {
+		replanned.moveSensor(1, sensorPositions[++replans % 2]);
+		return replanned.replan();
+	}
+
+	private FlightController newController() {
+		return new FlightController(data.getZones(), index, data.getCoords(), data.getStart(), data.getSensorNames(), threads, FlightPath.GREEDY, estimates);
+	}
+
+}
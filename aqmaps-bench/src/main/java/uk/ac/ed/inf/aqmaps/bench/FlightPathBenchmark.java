@@ -0,0 +1,66 @@
+package uk.ac.ed.inf.aqmaps.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.ac.ed.inf.aqmaps.*;
+
+// Measures planning a single leg between two sensors
+// Each operation plans one of a fixed sample of sensor pairs, so the figures are an average over short and long, blocked and unblocked legs.
+// construct builds a full FlightPath with its list of moves, as the final path does, while estimate only counts the moves, as the path matrix does.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FlightPathBenchmark {
+
+	private static final int PAIRS = 64;
+
+	@Param({"campus", "synthetic-40-33"})
+	public String fixture;
+
+	@Param({"greedy", "astar"})
+	public String planner;
+
+	private NoFlyIndex index;
+	private LegPlanner legPlanner;
+	private final List<Coords> starts = new ArrayList<Coords>();
+	private final List<Coords> ends = new ArrayList<Coords>();
+
+	@Setup
+	public void setup() {
+		Fixture data = Fixture.load(fixture);
+		index = new NoFlyIndex(data.getZones());
+		legPlanner = planner.equals("astar") ? new AStarPlanner(AStarPlanner.DEFAULT_BUDGET) : FlightPath.GREEDY;
+		List<Coords> coords = data.getCoords();
+		Random random = new Random(1);
+		for(int i = 0; i < PAIRS; i++) {
+			starts.add(coords.get(random.nextInt(coords.size())));
+			ends.add(coords.get(random.nextInt(coords.size())));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PAIRS)
+	public void construct(Blackhole blackhole) {
+		for(int i = 0; i < PAIRS; i++) {
+			blackhole.consume(new FlightPath(starts.get(i), ends.get(i), index, "sensor", legPlanner));
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(PAIRS)
+	public void estimate(Blackhole blackhole) {
+		for(int i = 0; i < PAIRS; i++) {
+			blackhole.consume(FlightPath.estimate(starts.get(i), ends.get(i), index, legPlanner));
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package uk.ac.ed.inf.aqmaps.bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import uk.ac.ed.inf.aqmaps.*;
+
+// Measures the no-fly zone intersection test that every candidate move goes through
+// Each operation tests one move-length segment, starting at a random point in the confinement area with a random legal bearing, against every zone.
+// zones checks each NoFlyZone in turn, as the original planner did, while index asks the NoFlyIndex used by the planner today.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class IntersectBenchmark {
+
+	private static final int SEGMENTS = 1024;
+
+	@Param({"campus", "synthetic-40-33", "synthetic-60-33"})
+	public String fixture;
+
+	private List<NoFlyZone> zones;
+	private NoFlyIndex index;
+	private final double[] segments = new double[SEGMENTS * 4];
+
+	@Setup
+	public void setup() {
+		zones = Fixture.load(fixture).getZones();
+		index = new NoFlyIndex(zones);
+		Random random = new Random(1);
+		for(int i = 0; i < SEGMENTS; i++) {
+			var lng = Fixture.MIN_LNG + random.nextDouble() * (Fixture.MAX_LNG - Fixture.MIN_LNG);
+			var lat = Fixture.MIN_LAT + random.nextDouble() * (Fixture.MAX_LAT - Fixture.MIN_LAT);
+			var bearing = Math.toRadians(10 * random.nextInt(36));
+			segments[4*i] = lng;
+			segments[4*i+1] = lat;
+			segments[4*i+2] = lng + 0.0003 * Math.cos(bearing);
+			segments[4*i+3] = lat + 0.0003 * Math.sin(bearing);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SEGMENTS)
+	public int zones() {
+		var hits = 0;
+		for(int i = 0; i < SEGMENTS; i++) {
+			for(NoFlyZone zone : zones) {
+				if(zone.intersects(segments[4*i], segments[4*i+1], segments[4*i+2], segments[4*i+3])) {
+					hits++;
+					break;
+				}
+			}
+		}
+		return hits;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SEGMENTS)
+	public int index() {
+		var hits = 0;
+		for(int i = 0; i < SEGMENTS; i++) {
+			if(index.intersects(segments[4*i], segments[4*i+1], segments[4*i+2], segments[4*i+3])) {
+				hits++;
+			}
+		}
+		return hits;
+	}
+
+}
@@ -0,0 +1,168 @@
+package uk.ac.ed.inf.aqmaps.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import uk.ac.ed.inf.aqmaps.*;
+
+// Runs many complete planning jobs at once against a StandInServer, and reports their throughput and latency percentiles
+// Each job is a whole run of App for one day - fetching the no-fly zones, sensors and words over HTTP, planning the path and writing both output files.
+// Jobs use their own connection to the server and no word cache, so every job does the full amount of fetching.
+// Usage: LoadTest [--name=value ...]
+//   --fixture=campus|synthetic-Z-S  generate the days to serve from a fixture (default campus)
+//   --data=DIR                      serve a directory in the web server's layout instead, such as a saved copy of the real server
+//   --start=DATE                    the first day to plan (default 2020-01-01), each later job planning the following day
+//   --jobs=N                        how many jobs are measured (default 100), after --warmup=N unmeasured jobs (default 20)
+//   --concurrency=N                 how many jobs run at once (default 8)
+//   --latency-ms=N --jitter-ms=N    the server's delay before each response (default 20 and 10)
+//   --threads=N --planner=NAME --improve-ms=N --fetch-concurrency=N  as for App
+public class LoadTest {
+
+	public static void main(String[] args) throws Exception {
+		final int jobs = Integer.parseInt(getOption(args, "jobs", "100"));
+		final int warmup = Integer.parseInt(getOption(args, "warmup", "20"));
+		final int concurrency = Integer.parseInt(getOption(args, "concurrency", "8"));
+		final long latency = Long.parseLong(getOption(args, "latency-ms", "20"));
+		final long jitter = Long.parseLong(getOption(args, "jitter-ms", "10"));
+		final int threads = Integer.parseInt(getOption(args, "threads", "1"));
+		final long improveMillis = Long.parseLong(getOption(args, "improve-ms", Long.toString(FlightController.DEFAULT_IMPROVEMENT_BUDGET)));
+		final int fetchConcurrency = Integer.parseInt(getOption(args, "fetch-concurrency", Integer.toString(ServerHandler.DEFAULT_CONCURRENCY)));
+		final LegPlanner planner = getOption(args, "planner", "greedy").equals("astar") ? new AStarPlanner() : FlightPath.GREEDY;
+		final LocalDate first = LocalDate.parse(getOption(args, "start", "2020-01-01"));
+
+		List<LocalDate> dates = new ArrayList<LocalDate>();
+		for(int i = 0; i < warmup + jobs; i++) {
+			dates.add(first.plusDays(i));
+		}
+
+		// Either serve the given directory, or write the fixture out for every day to be planned
+		Path scratch = Files.createTempDirectory("aqmaps-load");
+		Path data;
+		String dataOption = getOption(args, "data", null);
+		if(dataOption != null) {
+			data = Paths.get(dataOption);
+		} else {
+			data = scratch.resolve("server");
+			Fixture.load(getOption(args, "fixture", "campus")).writeServerLayout(data, dates);
+		}
+		Path output = Files.createDirectories(scratch.resolve("output"));
+
+		PrintStream console = System.out;
+		try(StandInServer server = new StandInServer(0, List.of(data), latency, jitter, 1)) {
+			final int port = server.getPort();
+			ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+			System.setOut(new PrintStream(OutputStream.nullOutputStream())); // The planner's progress output would swamp the report
+
+			// The warmup jobs let the JIT compile the planner before anything is measured
+			runJobs(pool, dates.subList(0, warmup), port, fetchConcurrency, threads, planner, improveMillis, output);
+			var requestsBefore = server.getRequestCount();
+			long[] phasesBefore = phaseNanos();
+			var start = System.nanoTime();
+			List<Long> latencies = runJobs(pool, dates.subList(warmup, dates.size()), port, fetchConcurrency, threads, planner, improveMillis, output);
+			var elapsed = System.nanoTime() - start;
+			pool.shutdown();
+
+			System.setOut(console);
+			long[] phases = phaseNanos();
+			for(int i = 0; i < phases.length; i++) {
+				phases[i] -= phasesBefore[i];
+			}
+			report(jobs, latencies, elapsed, server.getRequestCount() - requestsBefore, phases, concurrency, latency, jitter);
+		} finally {
+			System.setOut(console);
+			deleteTree(scratch);
+		}
+	}
+
+	// Runs a job for every date, returning the latency in nanoseconds of each one which succeeded
+	private static List<Long> runJobs(ExecutorService pool, List<LocalDate> dates, int port, int fetchConcurrency, int threads, LegPlanner planner, long improveMillis, Path output) throws InterruptedException {
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+		for(LocalDate date : dates) {
+			results.add(pool.submit(() -> runJob(date, port, fetchConcurrency, threads, planner, improveMillis, output)));
+		}
+		List<Long> latencies = new ArrayList<Long>();
+		for(int i = 0; i < results.size(); i++) {
+			try {
+				latencies.add(results.get(i).get());
+			} catch (ExecutionException e) {
+				System.err.println(dates.get(i) + ": " + e.getCause());
+			}
+		}
+		return latencies;
+	}
+
+	// Plans one day exactly as App does, timing it from the first request to the last byte written
+	private static long runJob(LocalDate date, int port, int fetchConcurrency, int threads, LegPlanner planner, long improveMillis, Path output) throws IOException, InterruptedException {
+		var start = System.nanoTime();
+		ServerHandler server = new ServerHandler(port, fetchConcurrency, Duration.ofSeconds(30));
+		Coords startPoint = Fixture.CAMPUS_START;
+		CompletableFuture<List<NoFlyZone>> noFlyZones = server.getNoFlyZonesAsync();
+		DayPlanner dayPlanner = new DayPlanner(server, noFlyZones, startPoint, threads, planner, improveMillis);
+		dayPlanner.setOutputDirectory(output);
+		dayPlanner.plan(String.format("%02d", date.getDayOfMonth()), String.format("%02d", date.getMonthValue()), Integer.toString(date.getYear()));
+		return System.nanoTime() - start;
+	}
+
+	private static void report(int jobs, List<Long> latencies, long elapsed, long requests, long[] phases, int concurrency, long latency, long jitter) {
+		long[] sorted = new long[latencies.size()];
+		for(int i = 0; i < sorted.length; i++) {
+			sorted[i] = latencies.get(i);
+		}
+		Arrays.sort(sorted);
+		var seconds = elapsed / 1e9;
+		System.out.println(String.format(Locale.ROOT, "Jobs: %d succeeded, %d failed, %d at once, server latency %d ms + up to %d ms jitter", sorted.length, jobs - sorted.length, concurrency, latency, jitter));
+		System.out.println(String.format(Locale.ROOT, "Throughput: %.2f jobs/s, %.1f requests/s over %.2f s", sorted.length / seconds, requests / seconds, seconds));
+		if(sorted.length > 0) {
+			System.out.println(String.format(Locale.ROOT, "Latency (ms): p50 %.1f, p90 %.1f, p99 %.1f, max %.1f", percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted[sorted.length - 1] / 1e6));
+		}
+		StringBuilder breakdown = new StringBuilder("Phases (ms, summed over measured jobs):");
+		for(Metrics.Phase phase : Metrics.Phase.values()) {
+			breakdown.append(String.format(Locale.ROOT, " %s %.1f", phase.getLabel(), phases[phase.ordinal()] / 1e6));
+		}
+		System.out.println(breakdown);
+	}
+
+	// The nearest-rank percentile, in milliseconds
+	private static double percentile(long[] sorted, int p) {
+		var rank = (int) Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)] / 1e6;
+	}
+
+	private static long[] phaseNanos() {
+		long[] nanos = new long[Metrics.Phase.values().length];
+		for(Metrics.Phase phase : Metrics.Phase.values()) {
+			nanos[phase.ordinal()] = Metrics.getPhaseNanos(phase);
+		}
+		return nanos;
+	}
+
+	private static String getOption(String[] args, String name, String defaultValue) {
+		var prefix = "--" + name + "=";
+		for(String arg : args) {
+			if(arg.startsWith(prefix)) return arg.substring(prefix.length());
+		}
+		return defaultValue;
+	}
+
+	private static void deleteTree(Path root) throws IOException {
+		try(var paths = Files.walk(root)) {
+			paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package uk.ac.ed.inf.aqmaps.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.mapbox.geojson.*;
+
+import uk.ac.ed.inf.aqmaps.*;
+
+// Measures writing a planned day's two output files
+// Output goes to a writer which discards it, so only the formatting is measured and not the disk.
+// The baseline benchmarks format the same output the way the planner originally did, with String.format and FeatureCollection.toJson, for comparison.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class OutputBenchmark {
+
+	@Param({"campus", "synthetic-40-150"})
+	public String fixture;
+
+	private Coords start;
+	private List<Feature> markers;
+	private List<FlightPath> paths;
+
+	@Setup
+	public void setup() {
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			Fixture data = Fixture.load(fixture);
+			start = data.getStart();
+			markers = data.getMarkers();
+			FlightController controller = new FlightController(data.getZones(), data.getCoords(), start, data.getSensorNames(), 1);
+			controller.setImprovementBudget(0);
+			paths = controller.generateOrder();
+		} finally {
+			System.setOut(console);
+		}
+	}
+
+	@Benchmark
+	public Writer flightPathWriter() throws IOException {
+		Writer out = Writer.nullWriter();
+		try(FlightPathWriter writer = new FlightPathWriter(out)) {
+			writer.writePaths(paths);
+		}
+		return out;
+	}
+
+	@Benchmark
+	public Writer geoJSONWriter() throws IOException {
+		Writer out = Writer.nullWriter();
+		try(GeoJSONWriter writer = new GeoJSONWriter(out)) {
+			for(Feature marker : markers) {
+				writer.writeFeature(marker);
+			}
+			writer.writePath(start, paths);
+		}
+		return out;
+	}
+
+	@Benchmark
+	public String flightPathBaseline() {
+		StringWriter out = new StringWriter();
+		var moveNo = 1;
+		for(FlightPath path : paths) {
+			for(Move m : path.getMoveList()) {
+				out.write(String.format(Locale.ROOT, "%d,%f,%f,%d,%f,%f,%s\n", moveNo++, m.getStart().getLng(), m.getStart().getLat(), m.getBearing(), m.getEnd().getLng(), m.getEnd().getLat(), m.getSensor()));
+			}
+		}
+		return out.toString();
+	}
+
+	@Benchmark
+	public String geoJSONBaseline() {
+		List<Feature> features = new ArrayList<Feature>(markers);
+		features.add(new GeoJSONHandler(start).generatePath(paths));
+		return FeatureCollection.fromFeatures(features).toJson();
+	}
+
+}
@@ -0,0 +1,127 @@
+package uk.ac.ed.inf.aqmaps.bench;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// A stand-in for the coursework web server, built on the JDK's HttpServer, so the whole pipeline can run on a machine with no network
+// Files are served from one or more fixture directories in the server's maps/words/buildings layout. The first directory containing a path wins.
+// Every response is delayed by the base latency plus a uniformly random jitter, drawn from a seeded generator.
+// Delays are scheduled rather than slept, so any number of requests can be waiting at once, as they would be on a real server.
+// Usage: StandInServer <port> <latency ms> <jitter ms> <directory> [<directory> ...]
+public class StandInServer implements Closeable {
+
+	static {
+		// Without TCP_NODELAY the headers and body go out as separate packets, and Nagle's algorithm holds the body back for a delayed ACK, adding about 40ms to every request
+		if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final HttpServer server;
+	private final ExecutorService handlers = Executors.newFixedThreadPool(4);
+	private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+	private final List<Path> roots;
+	private final long latencyMicros;
+	private final long jitterMicros;
+	private final Random random;
+	private final AtomicLong requests = new AtomicLong();
+
+	// A port of 0 picks any free port, which getPort then returns
+	public StandInServer(int port, List<Path> roots, long latencyMillis, long jitterMillis, long seed) throws IOException {
+		this.roots = new ArrayList<Path>();
+		for(Path root : roots) {
+			this.roots.add(root.toAbsolutePath().normalize());
+		}
+		this.latencyMicros = latencyMillis * 1000;
+		this.jitterMicros = jitterMillis * 1000;
+		this.random = new Random(seed);
+		// Bound to localhost, which is the host ServerHandler always connects to
+		this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/", this::handle);
+		server.setExecutor(handlers);
+		server.start();
+	}
+
+	public static void main(String[] args) throws IOException {
+		List<Path> roots = new ArrayList<Path>();
+		for(int i = 3; i < args.length; i++) {
+			roots.add(Paths.get(args[i]));
+		}
+		StandInServer server = new StandInServer(Integer.parseInt(args[0]), roots, Long.parseLong(args[1]), Long.parseLong(args[2]), 1);
+		System.out.println("Serving " + roots + " on port " + server.getPort());
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		scheduler.shutdownNow();
+		handlers.shutdownNow();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		byte[] body = null;
+		if(exchange.getRequestMethod().equals("GET")) {
+			body = find(exchange.getRequestURI().getPath());
+		}
+		final byte[] response = body;
+		scheduler.schedule(() -> respond(exchange, response), nextDelay(), TimeUnit.MICROSECONDS);
+	}
+
+	// Finds the file for a request path, refusing any path which would escape the fixture directories
+	private byte[] find(String path) throws IOException {
+		for(Path root : roots) {
+			Path file = root.resolve(path.replaceFirst("^/+", "")).normalize();
+			if(file.startsWith(root) && Files.isRegularFile(file)) {
+				return Files.readAllBytes(file);
+			}
+		}
+		return null;
+	}
+
+	private synchronized long nextDelay() {
+		return latencyMicros + (jitterMicros > 0 ? (long) (random.nextDouble() * jitterMicros) : 0);
+	}
+
+	private static void respond(HttpExchange exchange, byte[] body) {
+		try {
+			if(body == null) {
+				exchange.sendResponseHeaders(404, -1);
+			} else {
+				exchange.sendResponseHeaders(200, body.length);
+				try(OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			}
+		} catch (IOException e) {
+			// The client has gone away, so there is nobody left to tell
+		} finally {
+			exchange.close();
+		}
+	}
+
+}
@@ -0,0 +1,255 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Arrays;
+
+// Plans flightPaths with an A* search over every position reachable using the drone's 36 legal bearings
+// Unlike the greedy planner, it finds a near-shortest path within the expansion budget, rather than hugging buildings and sometimes taking long detours around them.
+// It is not guaranteed to be the shortest: merging nearby positions can discard a route that would have led somewhere slightly better, and a search which runs out of budget uses the greedy path.
+// Positions are quantized so that near-identical points reached by different routes are only searched once.
+// The search stops after a fixed number of expansions, falling back to the greedy planner, so a leg can never take unboundedly long.
+public class AStarPlanner implements LegPlanner {
+
+	public static final int DEFAULT_BUDGET = 20000;
+	private static final double QUANTUM = FlightPath.MOVE / 10; // Positions closer than this are treated as the same search node
+
+	private final int budget;
+
+	public AStarPlanner() {
+		this(DEFAULT_BUDGET);
+	}
+
+	// The budget is the maximum number of nodes expanded for a single leg before giving up on the search
+	public AStarPlanner(int budget) {
+		this.budget = budget;
+	}
+
+	@Override
+	public LegEstimate plan(Coords start, Coords end, NoFlyIndex noFly, String sensorName, MoveList moves) {
+		Search search = new Search(start.getLng(), start.getLat(), end.getLng(), end.getLat());
+		var goal = search.run(noFly, budget);
+
+		if(goal == -1) { // If the budget ran out, or no path exists, the greedy planner is used instead
+			return FlightPath.GREEDY.plan(start, end, noFly, sensorName, moves);
+		}
+
+		return search.buildMoves(goal, sensorName, moves);
+	}
+
+	@Override
+	public String getName() {
+		return "astar-" + budget;
+	}
+
+	// The state of a single A* search. Nodes are stored in parallel primitive arrays, indexed by the order in which they were created.
+	private static class Search {
+
+		private final double endLng;
+		private final double endLat;
+
+		private int nodeCount = 0;
+		private double[] lng = new double[256];
+		private double[] lat = new double[256];
+		private int[] parent = new int[256];
+		private int[] bearing = new int[256];
+		private int[] moves = new int[256]; // The number of moves taken to reach each node
+		private int[] estimate = new int[256]; // The heuristic estimate of the moves remaining from each node
+
+		private int[] heap = new int[256]; // The open set, as a binary heap of node indices
+		private int heapSize = 0;
+
+		private final CellTable bestMoves = new CellTable(); // The fewest moves found so far to reach each quantized cell
+
+		Search(double startLng, double startLat, double endLng, double endLat) {
+			this.endLng = endLng;
+			this.endLat = endLat;
+			addNode(startLng, startLat, -1, -1, 0);
+			bestMoves.put(cellOf(startLng, startLat), 0);
+			push(0);
+		}
+
+		// Runs the search, returning the index of the first node within range of the target, or -1 if none was found within the budget
+		// The goal is checked when a node is created, which still gives a shortest path since every move costs the same and the heuristic never overestimates.
+		// It also lets a path leave the start and come back to it, which is needed when the start is already in range.
+		int run(NoFlyIndex noFly, int budget) {
+			var expanded = 0;
+			var tests = 0; // The work done, counted for the metrics
+			var generated = 0;
+			while(heapSize > 0 && expanded < budget) {
+				var node = pop();
+				if(bestMoves.get(cellOf(lng[node], lat[node])) < moves[node]) continue; // A shorter route to this cell has been found since it was added
+				expanded++;
+
+				for(int b = 0; b < 360; b += 10) {
+					tests++;
+					if(FlightPath.isBlocked(noFly, lng[node], lat[node], b)) continue;
+					generated++;
+					var newLng = lng[node] + FlightPath.lngStep(b);
+					var newLat = lat[node] + FlightPath.latStep(b);
+					var newMoves = moves[node] + 1;
+
+					if(FlightPath.isClose(newLng, newLat, endLng, endLat)) {
+						Metrics.addWork(tests, 0, generated);
+						return addNode(newLng, newLat, node, b, newMoves);
+					}
+
+					var cell = cellOf(newLng, newLat);
+					if(bestMoves.get(cell) <= newMoves) continue;
+					bestMoves.put(cell, newMoves);
+					push(addNode(newLng, newLat, node, b, newMoves));
+				}
+			}
+			Metrics.addWork(tests, 0, generated);
+			return -1;
+		}
+
+		// Follows the parent links back from the goal, adding each move to the list in order
+		LegEstimate buildMoves(int goal, String sensorName, MoveList moveList) {
+			if(moveList != null) {
+				int[] path = new int[moves[goal]];
+				for(int node = goal, i = path.length - 1; i >= 0; node = parent[node], i--) {
+					path[i] = node;
+				}
+
+				for(int i = 0; i < path.length; i++) {
+					var sensorClose = (i == path.length - 1) ? sensorName : "null";
+					moveList.add(lng[path[i]], lat[path[i]], bearing[path[i]], sensorClose);
+				}
+			}
+			// The corridor covers every node on the path, back to the start
+			double minLng = lng[goal], minLat = lat[goal], maxLng = lng[goal], maxLat = lat[goal];
+			for(int node = parent[goal]; node != -1; node = parent[node]) {
+				minLng = Math.min(minLng, lng[node]);
+				minLat = Math.min(minLat, lat[node]);
+				maxLng = Math.max(maxLng, lng[node]);
+				maxLat = Math.max(maxLat, lat[node]);
+			}
+			return new LegEstimate(moves[goal], new Coords(lng[goal], lat[goal]), minLng, minLat, maxLng, maxLat);
+		}
+
+		private int addNode(double nodeLng, double nodeLat, int nodeParent, int nodeBearing, int nodeMoves) {
+			if(nodeCount == lng.length) {
+				var size = nodeCount * 2;
+				lng = Arrays.copyOf(lng, size);
+				lat = Arrays.copyOf(lat, size);
+				parent = Arrays.copyOf(parent, size);
+				bearing = Arrays.copyOf(bearing, size);
+				moves = Arrays.copyOf(moves, size);
+				estimate = Arrays.copyOf(estimate, size);
+			}
+			lng[nodeCount] = nodeLng;
+			lat[nodeCount] = nodeLat;
+			parent[nodeCount] = nodeParent;
+			bearing[nodeCount] = nodeBearing;
+			moves[nodeCount] = nodeMoves;
+			estimate[nodeCount] = remainingMoves(nodeLng, nodeLat);
+			return nodeCount++;
+		}
+
+		// The heuristic - no move brings the drone more than one step closer, so it needs at least this many moves to get within range
+		private int remainingMoves(double nodeLng, double nodeLat) {
+			var dist = Math.hypot(endLng - nodeLng, endLat - nodeLat);
+			return (int) Math.max(0, Math.ceil((dist - FlightPath.CLOSE_RANGE) / FlightPath.MOVE));
+		}
+
+		private static long cellOf(double nodeLng, double nodeLat) {
+			return (Math.round(nodeLng / QUANTUM) << 32) ^ (Math.round(nodeLat / QUANTUM) & 0xffffffffL);
+		}
+
+		// Nodes are ordered by total estimated moves, then by fewest remaining moves, then by creation order so that searches are deterministic
+		private boolean before(int a, int b) {
+			var fa = moves[a] + estimate[a];
+			var fb = moves[b] + estimate[b];
+			if(fa != fb) return fa < fb;
+			if(estimate[a] != estimate[b]) return estimate[a] < estimate[b];
+			return a < b;
+		}
+
+		private void push(int node) {
+			if(heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+			var i = heapSize++;
+			while(i > 0 && before(node, heap[(i - 1) / 2])) {
+				heap[i] = heap[(i - 1) / 2];
+				i = (i - 1) / 2;
+			}
+			heap[i] = node;
+		}
+
+		private int pop() {
+			var top = heap[0];
+			var last = heap[--heapSize];
+			var i = 0;
+			while(2 * i + 1 < heapSize) {
+				var child = 2 * i + 1;
+				if(child + 1 < heapSize && before(heap[child + 1], heap[child])) child++;
+				if(!before(heap[child], last)) break;
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = last;
+			return top;
+		}
+	}
+
+	// A minimal open-addressing hash table from quantized cells to move counts, avoiding the boxing of a HashMap
+	private static class CellTable {
+
+		private long[] keys = new long[1024];
+		private int[] values = new int[1024];
+		private boolean[] used = new boolean[1024];
+		private int size = 0;
+
+		// Returns the stored move count for a cell, or Integer.MAX_VALUE if it has not been reached
+		int get(long key) {
+			var i = indexOf(key, keys, used);
+			return used[i] ? values[i] : Integer.MAX_VALUE;
+		}
+
+		void put(long key, int value) {
+			var i = indexOf(key, keys, used);
+			if(!used[i]) {
+				if(2 * (size + 1) > keys.length) {
+					grow();
+					i = indexOf(key, keys, used);
+				}
+				used[i] = true;
+				keys[i] = key;
+				size++;
+			}
+			values[i] = value;
+		}
+
+		private static int indexOf(long key, long[] tableKeys, boolean[] tableUsed) {
+			var mask = tableKeys.length - 1;
+			var i = (int) (mix(key) & mask);
+			while(tableUsed[i] && tableKeys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		private void grow() {
+			long[] newKeys = new long[keys.length * 2];
+			int[] newValues = new int[keys.length * 2];
+			boolean[] newUsed = new boolean[keys.length * 2];
+			for(int i = 0; i < keys.length; i++) {
+				if(used[i]) {
+					var j = indexOf(keys[i], newKeys, newUsed);
+					newUsed[j] = true;
+					newKeys[j] = keys[i];
+					newValues[j] = values[i];
+				}
+			}
+			keys = newKeys;
+			values = newValues;
+			used = newUsed;
+		}
+
+		private static long mix(long key) {
+			key ^= key >>> 33;
+			key *= 0xff51afd7ed558ccdL;
+			key ^= key >>> 33;
+			return key;
+		}
+	}
+
+}
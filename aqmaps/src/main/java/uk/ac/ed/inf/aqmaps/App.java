@@ -1,11 +1,10 @@
 package uk.ac.ed.inf.aqmaps;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
-
-import com.mapbox.geojson.*;
+import java.util.concurrent.CompletableFuture;
 
 public class App 
 {
@@ -17,91 +16,189 @@ public class App
         final String year = args[2];
         final double startLat = Double.parseDouble(args[3]);
         final double startLng = Double.parseDouble(args[4]);
-        final int seed = Integer.parseInt(args[5]); // Unused, but still worth having as a variable
+        final int seed = Integer.parseInt(args[5]); // Seeds the random restarts of the tour portfolio
         final int port = Integer.parseInt(args[6]);
+        final int threads = Integer.parseInt(getOption(args, "threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        final long improveMillis = Long.parseLong(getOption(args, "improve-ms", Long.toString(FlightController.DEFAULT_IMPROVEMENT_BUDGET)));
+        final LegPlanner planner = getPlanner(getOption(args, "planner", "greedy"), Integer.parseInt(getOption(args, "astar-budget", Integer.toString(AStarPlanner.DEFAULT_BUDGET))));
+        final long portfolioMillis = Long.parseLong(getOption(args, "portfolio-ms", "0"));
+        final long exactMillis = Long.parseLong(getOption(args, "exact-ms", "0"));
+        final String metricsPath = getOption(args, "metrics", "none");
+        setLogLevel(getOption(args, "log", "info"));
         
         // Initialise variables
-        ServerHandler server = new ServerHandler(port);
+        ServerHandler server = createServer(args, port);
+        WordCache wordCache = getWordCache(getOption(args, "word-cache", "none"));
+        server.setWordCache(wordCache);
+        LegCache legCache = getLegCache(getOption(args, "leg-cache", "none"));
         Coords startPoint = new Coords(startLng, startLat);
-        Sensor[] locations = new Sensor[] {};
-        GeoJSONHandler geo = new GeoJSONHandler(startPoint);
-		List<Feature> featureList = new ArrayList<Feature>();
-		List<Coords> coordsList = new ArrayList<Coords>();
-		List<String> sensorNames = new ArrayList<String>();
-		sensorNames.add("null");
-		String noFlyZoneData = "";
-		
-		// Fetch data from the server
+        
+        // The no-fly zones are requested straight away, so they download while the day's sensors and their coordinates are fetched
+        CompletableFuture<List<NoFlyZone>> noFlyZones = server.getNoFlyZonesAsync();
+        DayPlanner dayPlanner = new DayPlanner(server, noFlyZones, startPoint, threads, planner, improveMillis);
+        dayPlanner.setEstimates(getEstimates(getOption(args, "estimates", "simulate")));
+        dayPlanner.setPortfolio(seed, portfolioMillis);
+        dayPlanner.setExactBudget(exactMillis);
+        dayPlanner.setSpeculation(getSpeculation(getOption(args, "speculate", "off"), threads));
+        dayPlanner.setLegCache(legCache);
+        dayPlanner.setOutput(getOutput(getOption(args, "output", "text")));
+        
+        // Fetch the data, perform the pathfinding algorithm and generate the text and geojson output
+        var sum = 0;
         try {
-			locations = server.getSensorData(year, month, day);
-			var index = 1;
-			for(var loc : locations) {
-				Coords coords = server.convertWordToCoords(loc.getLocation());
-				Feature marker = geo.generateMarker(loc, coords);
-				marker.addStringProperty("text", Integer.toString(index));
-				featureList.add(marker);
-				coordsList.add(coords);
-				sensorNames.add(loc.getLocation());
-				index++;
-			}
-			
-			noFlyZoneData = server.getNoFlyZoneData();
-			
+        	sum = dayPlanner.plan(day, month, year);
 		} catch (IOException | InterruptedException e) {
 			System.out.println("Error: Server connection exception");
 			e.printStackTrace();
 			System.exit(0);
 		}
-
-        // Perform pathfinding algorithm
-		List<NoFlyZone> noFlyZones = geo.parseNoFlyZones(noFlyZoneData);
-		FlightController controller = new FlightController(noFlyZones, coordsList, startPoint, sensorNames);
-		ArrayList<FlightPath> totalPath = (ArrayList<FlightPath>) controller.generateOrder();
-		
-		// Display some logging output
-		var sum = 0;
-		for(FlightPath path : totalPath) {
-			sum = sum + path.getMoveCount();
-		}
-		System.out.println("Total path length: " + sum);
+        
+        saveWordCache(wordCache);
+        saveLegCache(legCache);
+        writeMetrics(metricsPath);
 		
-		if(sum > 150) {
-			System.out.println("A suitable path was unable to be found.");
+		if(sum > DayPlanner.MAX_MOVES) {
 			System.exit(1);
 		}
-		
-		// Generate the text and geojson output
-		Feature path = geo.generatePath(totalPath);
-		featureList.add(path);
-		outputFlightPath(totalPath, day, month, year);
-		geo.outputJSON(featureList, day, month, year);
     }
 
-    // Generates the flightpath text file for output, using the list of flightpaths
-	private static void outputFlightPath(ArrayList<FlightPath> totalPath, String day, String month, String year) {
-		
-	    try {
-	        FileWriter writer = new FileWriter("flightpath-"+day+"-"+month+"-"+year+".txt");
-			var moveNo = 1;
-			
-			// For each move, we read it's properties and write to the file in the order specified
-			for(FlightPath currPath:totalPath) {
-				List<Move> moves = currPath.getMoveList();
-				for(int i = 0; i < moves.size(); i++) {
-					Coords start = moves.get(i).getStart();
-					Coords end = moves.get(i).getEnd();
-					String currLine = String.format("%d,%f,%f,%d,%f,%f,%s\n", moveNo, start.getLng(), start.getLat(), moves.get(i).getBearing(), end.getLng(), end.getLat(), moves.get(i).getSensor());
-					writer.write(currLine);
-					moveNo++;
-				}
-			}
-			System.out.println("Successfully wrote flightpath.");
-	        writer.close();
-	      } catch (IOException e) {
-	        System.out.println("An error occurred in writing flightpath.");
-	        e.printStackTrace();
-	        System.exit(0);
-	      }
-		
-	}
+    // Creates the server handler, applying the request concurrency and timeout options
+    static ServerHandler createServer(String[] args, int port) {
+    	var concurrency = Integer.parseInt(getOption(args, "fetch-concurrency", Integer.toString(ServerHandler.DEFAULT_CONCURRENCY)));
+    	var timeout = Duration.ofMillis(Long.parseLong(getOption(args, "fetch-timeout-ms", Long.toString(ServerHandler.DEFAULT_TIMEOUT.toMillis()))));
+    	return new ServerHandler(port, concurrency, timeout);
+    }
+    
+    // Failing to save the cache only costs the next run some requests, so we carry on regardless
+    static void saveWordCache(WordCache wordCache) {
+        try {
+        	if(wordCache != null) wordCache.save();
+        } catch (IOException e) {
+        	System.out.println("Warning: Unable to save word cache");
+        }
+    }
+
+    // Writes the metrics report to the given path, unless it is "none"
+    // As with the word cache, failing to write it does not affect the path that was planned.
+    static void writeMetrics(String path) {
+        if(path.equals("none")) return;
+        try {
+        	Metrics.writeReport(Paths.get(path));
+        } catch (IOException e) {
+        	System.out.println("Warning: Unable to write metrics to " + path);
+        }
+    }
+
+    // Sets how much progress output is printed, either "info" or "debug"
+    static void setLogLevel(String name) {
+    	switch(name) {
+    	case "info":
+    		Log.setLevel(Log.Level.INFO);
+    		break;
+    	case "debug":
+    		Log.setLevel(Log.Level.DEBUG);
+    		break;
+    	default:
+    		System.out.println("Error: Unknown log level " + name);
+    		System.exit(0);
+    	}
+    }
+
+    // Reads an optional --name=value argument given after the positional arguments, returning the default if it is absent
+    static String getOption(String[] args, String name, String defaultValue) {
+    	var prefix = "--" + name + "=";
+    	for(int i = 0; i < args.length; i++) {
+    		if(args[i].startsWith(prefix)) {
+    			return args[i].substring(prefix.length());
+    		}
+    	}
+    	return defaultValue;
+    }
+
+    // Opens the word cache at the given path, or returns null if the cache is turned off with "none", as it is unless a path is given
+    static WordCache getWordCache(String path) {
+    	if(path.equals("none")) {
+    		return null;
+    	}
+    	return new WordCache(Paths.get(path));
+    }
+
+    // Opens the leg cache at the given path, or returns null if the cache is turned off with "none", as it is unless a path is given
+    static LegCache getLegCache(String path) {
+    	if(path.equals("none")) {
+    		return null;
+    	}
+    	return new LegCache(Paths.get(path));
+    }
+
+    // Saves the leg cache, if there is one. As with the word cache, a leg cache which cannot be saved only costs the next run some simulation, so the run carries on.
+    static void saveLegCache(LegCache legCache) {
+        try {
+        	if(legCache != null) legCache.save();
+        } catch (IOException e) {
+        	System.out.println("Warning: Unable to save leg cache");
+        }
+    }
+
+    // Selects how the path matrix is estimated - by simulating every leg, or from a visibility graph around the no-fly zones
+    static FlightController.Estimates getEstimates(String name) {
+    	switch(name) {
+    	case "simulate":
+    		return FlightController.Estimates.SIMULATED;
+    	case "visibility":
+    		return FlightController.Estimates.VISIBILITY;
+    	default:
+    		System.out.println("Error: Unknown estimates " + name);
+    		System.exit(0);
+    		return null;
+    	}
+    }
+
+    // Reads the tolerance for building the final legs speculatively, in degrees, or "off" to build them in turn
+    // Speculation spreads the legs across the path matrix threads, so with only one thread it is turned off with a warning.
+    static double getSpeculation(String value, int threads) {
+    	if(value.equals("off")) {
+    		return FlightController.NO_SPECULATION;
+    	}
+    	var tolerance = Double.parseDouble(value);
+    	if(!(tolerance >= 0)) {
+    		System.out.println("Error: The speculation tolerance must be off or at least 0, not " + value);
+    		System.exit(0);
+    	}
+    	if(threads <= 1) {
+    		System.out.println("Warning: Ignoring --speculate, which needs --threads above 1");
+    		return FlightController.NO_SPECULATION;
+    	}
+    	return tolerance;
+    }
+
+    // Selects which files are written for each day - the text and geojson, a binary flight log, or both
+    static DayPlanner.Output getOutput(String name) {
+    	switch(name) {
+    	case "text":
+    		return DayPlanner.Output.TEXT;
+    	case "binary":
+    		return DayPlanner.Output.BINARY;
+    	case "both":
+    		return DayPlanner.Output.BOTH;
+    	default:
+    		System.out.println("Error: Unknown output " + name);
+    		System.exit(0);
+    		return null;
+    	}
+    }
+
+    // Selects the leg planner by name - either the original greedy planner, or an A* search with the given expansion budget
+    static LegPlanner getPlanner(String name, int budget) {
+    	switch(name) {
+    	case "greedy":
+    		return FlightPath.GREEDY;
+    	case "astar":
+    		return new AStarPlanner(budget);
+    	default:
+    		System.out.println("Error: Unknown planner " + name);
+    		System.exit(0);
+    		return null;
+    	}
+    }
 }
@@ -0,0 +1,107 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Plans every day in a range or list of dates within a single run, rather than launching App once per day
+// The server connection, word cache, no-fly zones and their index are loaded once and shared by every day, and independent days are planned in parallel on a pool of workers.
+// Usage: BatchApp <dates> <latitude> <longitude> <seed> <port> [--name=value ...]
+// where dates is either a range such as 2020-01-01..2020-12-31, or a comma separated list such as 2020-01-01,2020-03-15.
+public class BatchApp {
+
+	public static void main(String[] args) {
+		// Split args into its corresponding variables
+		final List<LocalDate> dates = parseDates(args[0]);
+		final double startLat = Double.parseDouble(args[1]);
+		final double startLng = Double.parseDouble(args[2]);
+		final int seed = Integer.parseInt(args[3]); // Seeds the random restarts of the tour portfolio, the same for every day
+		final int port = Integer.parseInt(args[4]);
+		final int workers = Integer.parseInt(App.getOption(args, "workers", Integer.toString(Runtime.getRuntime().availableProcessors())));
+		// Days already run in parallel, so by default each day builds its path matrix on a single thread
+		final int threads = Integer.parseInt(App.getOption(args, "threads", "1"));
+		final long improveMillis = Long.parseLong(App.getOption(args, "improve-ms", Long.toString(FlightController.DEFAULT_IMPROVEMENT_BUDGET)));
+		final LegPlanner planner = App.getPlanner(App.getOption(args, "planner", "greedy"), Integer.parseInt(App.getOption(args, "astar-budget", Integer.toString(AStarPlanner.DEFAULT_BUDGET))));
+		final long portfolioMillis = Long.parseLong(App.getOption(args, "portfolio-ms", "0"));
+		final long exactMillis = Long.parseLong(App.getOption(args, "exact-ms", "0"));
+		final String metricsPath = App.getOption(args, "metrics", "none");
+		App.setLogLevel(App.getOption(args, "log", "info"));
+
+		// Initialise the state shared by every day
+		ServerHandler server = App.createServer(args, port);
+		WordCache wordCache = App.getWordCache(App.getOption(args, "word-cache", "none"));
+		server.setWordCache(wordCache);
+		LegCache legCache = App.getLegCache(App.getOption(args, "leg-cache", "none"));
+		Coords startPoint = new Coords(startLng, startLat);
+		CompletableFuture<List<NoFlyZone>> noFlyZones = server.getNoFlyZonesAsync();
+		DayPlanner dayPlanner = new DayPlanner(server, noFlyZones, startPoint, threads, planner, improveMillis);
+		dayPlanner.setEstimates(App.getEstimates(App.getOption(args, "estimates", "simulate")));
+		dayPlanner.setPortfolio(seed, portfolioMillis);
+		dayPlanner.setExactBudget(exactMillis);
+		dayPlanner.setSpeculation(App.getSpeculation(App.getOption(args, "speculate", "off"), threads));
+		dayPlanner.setLegCache(legCache);
+		dayPlanner.setOutput(App.getOutput(App.getOption(args, "output", "text")));
+
+		// Submit every day to the worker pool
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for(LocalDate date : dates) {
+			final String day = String.format("%02d", date.getDayOfMonth());
+			final String month = String.format("%02d", date.getMonthValue());
+			final String year = Integer.toString(date.getYear());
+			results.add(pool.submit(() -> dayPlanner.plan(day, month, year)));
+		}
+		pool.shutdown();
+
+		// Collect the results in date order, counting the days which could not be planned
+		var failed = 0;
+		for(int i = 0; i < dates.size(); i++) {
+			try {
+				var sum = results.get(i).get();
+				if(sum > DayPlanner.MAX_MOVES) {
+					System.out.println(dates.get(i) + ": no suitable path found (" + sum + " moves)");
+					failed++;
+				}
+			} catch (ExecutionException e) {
+				System.out.println(dates.get(i) + ": Error - " + e.getCause());
+				failed++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				System.out.println("Error: Interrupted while waiting for results");
+				System.exit(1);
+			}
+		}
+
+		App.saveWordCache(wordCache);
+		App.saveLegCache(legCache);
+		App.writeMetrics(metricsPath);
+
+		System.out.println("Planned " + (dates.size() - failed) + " of " + dates.size() + " days successfully.");
+		if(failed > 0) {
+			System.exit(1);
+		}
+	}
+
+	// Parses either a range of dates "from..to" (inclusive), or a comma separated list of dates
+	private static List<LocalDate> parseDates(String spec) {
+		List<LocalDate> dates = new ArrayList<LocalDate>();
+		if(spec.contains("..")) {
+			String[] range = spec.split("\\.\\.");
+			LocalDate last = LocalDate.parse(range[1]);
+			for(LocalDate date = LocalDate.parse(range[0]); !date.isAfter(last); date = date.plusDays(1)) {
+				dates.add(date);
+			}
+		} else {
+			for(String date : spec.split(",")) {
+				dates.add(LocalDate.parse(date.trim()));
+			}
+		}
+		return dates;
+	}
+
+}
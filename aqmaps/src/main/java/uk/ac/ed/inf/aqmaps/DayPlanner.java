@@ -0,0 +1,285 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.mapbox.geojson.*;
+
+// Plans the flight for a single day - fetching that day's sensors, finding a path between them and writing both output files
+// Everything which does not depend on the day (the server connection, no-fly zones and planning settings) is held here, so one DayPlanner can plan many days, including several at once.
+public class DayPlanner {
+
+	public static final int MAX_MOVES = 150;
+
+	// Which files are written for each day: the flightpath text and readings geojson, a binary flight log, or all three
+	public enum Output { TEXT, BINARY, BOTH }
+
+	private final ServerHandler server;
+	private final Zones zones;
+	private final Coords startPoint;
+	private final int threads;
+	private final LegPlanner planner;
+	private final long improveMillis;
+	private Path outputDirectory = Paths.get("");
+	private FlightController.Estimates estimates = FlightController.Estimates.SIMULATED;
+	private long seed = 0;
+	private long portfolioMillis = 0;
+	private long exactMillis = 0;
+	private double speculationTolerance = FlightController.NO_SPECULATION;
+	private LegCache legCache = null;
+	private Output output = Output.TEXT;
+
+	// The no-fly zones are given as a future, so that they can still be downloading while the first day's sensors are fetched
+	// If fetching them fails, they are requested again for the next day planned, so a long-running planner recovers once the server is back.
+	public DayPlanner(ServerHandler server, CompletableFuture<List<NoFlyZone>> noFlyZones, Coords startPoint, int threads, LegPlanner planner, long improveMillis) {
+		this(server, new Zones(server, noFlyZones), startPoint, threads, planner, improveMillis);
+	}
+
+	private DayPlanner(ServerHandler server, Zones zones, Coords startPoint, int threads, LegPlanner planner, long improveMillis) {
+		this.server = server;
+		this.zones = zones;
+		this.startPoint = startPoint;
+		this.threads = threads;
+		this.planner = planner;
+		this.improveMillis = improveMillis;
+	}
+
+	// Returns a planner which starts from another point, sharing this planner's server, no-fly zones and their index, and copying its settings
+	public DayPlanner withStartPoint(Coords start) {
+		DayPlanner copy = new DayPlanner(server, zones, start, threads, planner, improveMillis);
+		copy.outputDirectory = outputDirectory;
+		copy.estimates = estimates;
+		copy.seed = seed;
+		copy.portfolioMillis = portfolioMillis;
+		copy.exactMillis = exactMillis;
+		copy.speculationTolerance = speculationTolerance;
+		copy.legCache = legCache;
+		copy.output = output;
+		return copy;
+	}
+
+	// Sets the directory the output files are written to, which is the working directory by default
+	public void setOutputDirectory(Path directory) {
+		this.outputDirectory = directory;
+	}
+
+	// Sets how the path matrix estimates the leg between each pair of points
+	public void setEstimates(FlightController.Estimates estimates) {
+		this.estimates = estimates;
+	}
+
+	// Orders each day's sensors with a TourPortfolio seeded from the given seed, within the given number of milliseconds. 0 turns it off.
+	public void setPortfolio(long seed, long millis) {
+		this.seed = seed;
+		this.portfolioMillis = millis;
+	}
+
+	// Sets how long each day may spend searching for the shortest order of its sensors, after the heuristics. 0 skips the search.
+	public void setExactBudget(long millis) {
+		this.exactMillis = millis;
+	}
+
+	// Sets how far, in degrees, a speculatively built final leg may be moved to join on to the last, or FlightController.NO_SPECULATION to build the legs in turn
+	public void setSpeculation(double tolerance) {
+		this.speculationTolerance = tolerance;
+	}
+
+	// Sets the cache in which the estimated legs between sensors are kept from one day to the next, or null to simulate every leg each day
+	public void setLegCache(LegCache legCache) {
+		this.legCache = legCache;
+	}
+
+	// Sets which output files are written, which is the text and geojson by default
+	public void setOutput(Output output) {
+		this.output = output;
+	}
+
+	// Plans the given day, returning the total number of moves in its path
+	// The output files are only written if the path fits within MAX_MOVES.
+	@SuppressWarnings("try")
+	public int plan(String day, String month, String year) throws IOException, InterruptedException {
+		DayPlan plan = planDay(day, month, year);
+		if(!plan.fits()) {
+			System.out.println("A suitable path was unable to be found.");
+			return plan.getMoveCount();
+		}
+
+		// Stream the text and geojson output, and the binary flight log, to their files
+		try(Metrics.Timer timer = Metrics.time(Metrics.Phase.OUTPUT)) {
+			if(output != Output.BINARY) {
+				outputFlightPath(plan, day, month, year);
+				outputJSON(plan, day, month, year);
+			}
+			if(output != Output.TEXT) {
+				outputFlightLog(plan, day, month, year);
+			}
+		}
+		return plan.getMoveCount();
+	}
+
+	// Fetches the given day's sensors and finds a path between them, without writing any output
+	@SuppressWarnings("try")
+	public DayPlan planDay(String day, String month, String year) throws IOException, InterruptedException {
+		GeoJSONHandler geo = new GeoJSONHandler(startPoint);
+		List<Feature> featureList = new ArrayList<Feature>();
+		List<Coords> coordsList = new ArrayList<Coords>();
+		List<String> sensorNames = new ArrayList<String>();
+		sensorNames.add("null");
+
+		// Fetch data from the server, requesting every sensor's coordinates at the same time
+		Sensor[] locations;
+		List<Coords> sensorCoords;
+		List<NoFlyZone> zoneList;
+		NoFlyIndex zoneIndex;
+		try(Metrics.Timer timer = Metrics.time(Metrics.Phase.FETCH)) {
+			locations = server.getSensorData(year, month, day);
+			List<String> words = new ArrayList<String>();
+			for(var loc : locations) {
+				words.add(loc.getLocation());
+			}
+			sensorCoords = server.convertWordsToCoords(words);
+			zoneList = ServerHandler.await(zones.getZones());
+			zoneIndex = ServerHandler.await(zones.getIndex());
+		}
+
+		var index = 1;
+		for(var loc : locations) {
+			Coords coords = sensorCoords.get(index-1);
+			Feature marker = geo.generateMarker(loc, coords);
+			marker.addStringProperty("text", Integer.toString(index));
+			featureList.add(marker);
+			coordsList.add(coords);
+			sensorNames.add(loc.getLocation());
+			index++;
+		}
+
+		// Perform pathfinding algorithm
+		FlightController controller = new FlightController(zoneList, zoneIndex, coordsList, startPoint, sensorNames, threads, planner, estimates, legCache);
+		controller.setImprovementBudget(improveMillis);
+		controller.setPortfolio(seed, portfolioMillis);
+		controller.setExactBudget(exactMillis);
+		controller.setSpeculation(speculationTolerance);
+		List<FlightPath> totalPath = controller.generateOrder();
+
+		// Display some logging output
+		var sum = 0;
+		for(FlightPath path : totalPath) {
+			sum = sum + path.getMoveCount();
+		}
+		System.out.println("Total path length: " + sum);
+		return new DayPlan(startPoint, locations, sensorCoords, featureList, totalPath, sum);
+	}
+
+	// Generates the flightpath text file for output, using the list of flightpaths
+	private void outputFlightPath(DayPlan plan, String day, String month, String year) {
+		try(FlightPathWriter writer = new FlightPathWriter(outputDirectory.resolve("flightpath-"+day+"-"+month+"-"+year+".txt"))) {
+			writer.writePaths(plan.getPaths());
+			System.out.println("Successfully wrote flightpath.");
+		} catch (IOException e) {
+			System.out.println("An error occurred in writing flightpath.");
+			e.printStackTrace();
+		}
+	}
+
+	// Generates the geojson output, with a marker for every sensor followed by the lineString of the path
+	private void outputJSON(DayPlan plan, String day, String month, String year) {
+		try(GeoJSONWriter writer = new GeoJSONWriter(outputDirectory.resolve("readings-"+day+"-"+month+"-"+year+".geojson"))) {
+			plan.writeReadings(writer);
+			System.out.println("Successfully wrote geoJSON.");
+		} catch (IOException e) {
+			System.out.println("An error occurred in geoJSON writing.");
+			e.printStackTrace();
+		}
+	}
+
+	// Generates the binary flight log, which FlightLogConverter can turn back into the other two files
+	private void outputFlightLog(DayPlan plan, String day, String month, String year) {
+		try {
+			plan.writeFlightLog(outputDirectory.resolve("flightlog-"+day+"-"+month+"-"+year+".aqfl"));
+			System.out.println("Successfully wrote flight log.");
+		} catch (IOException e) {
+			System.out.println("An error occurred in writing flight log.");
+			e.printStackTrace();
+		}
+	}
+
+	// The no-fly zones and their index, shared by a planner and its copies
+	// A failed fetch is replaced by a fresh request the next time the zones are asked for. Once the zones have arrived they are never fetched again.
+	private static class Zones {
+		private final ServerHandler server;
+		private CompletableFuture<List<NoFlyZone>> zones;
+		private CompletableFuture<NoFlyIndex> index;
+
+		Zones(ServerHandler server, CompletableFuture<List<NoFlyZone>> zones) {
+			this.server = server;
+			this.zones = zones;
+			this.index = zones.thenApply(NoFlyIndex::new);
+		}
+
+		synchronized CompletableFuture<List<NoFlyZone>> getZones() {
+			if(zones.isCompletedExceptionally()) {
+				System.out.println("Requesting the no-fly zones again, as the last attempt failed.");
+				zones = server.getNoFlyZonesAsync();
+				index = zones.thenApply(NoFlyIndex::new);
+			}
+			return zones;
+		}
+
+		// The index of the zones last returned by getZones
+		synchronized CompletableFuture<NoFlyIndex> getIndex() {
+			return index;
+		}
+	}
+
+	// The planned path for one day, along with its sensors and their markers, ready to be written to any of the outputs
+	public static class DayPlan {
+		private final Coords startPoint;
+		private final Sensor[] sensors;
+		private final List<Coords> sensorCoords;
+		private final List<Feature> markers;
+		private final List<FlightPath> paths;
+		private final int moveCount;
+
+		DayPlan(Coords startPoint, Sensor[] sensors, List<Coords> sensorCoords, List<Feature> markers, List<FlightPath> paths, int moveCount) {
+			this.startPoint = startPoint;
+			this.sensors = sensors;
+			this.sensorCoords = sensorCoords;
+			this.markers = markers;
+			this.paths = paths;
+			this.moveCount = moveCount;
+		}
+
+		public List<FlightPath> getPaths() {
+			return paths;
+		}
+
+		public int getMoveCount() {
+			return moveCount;
+		}
+
+		// Whether the path is short enough for the drone's battery
+		public boolean fits() {
+			return moveCount <= MAX_MOVES;
+		}
+
+		// Writes every marker, followed by the lineString of the path
+		public void writeReadings(GeoJSONWriter writer) throws IOException {
+			for(Feature marker : markers) {
+				writer.writeFeature(marker);
+			}
+			writer.writePath(startPoint, paths);
+		}
+
+		// Writes the path and sensors as a binary flight log
+		public void writeFlightLog(Path file) throws IOException {
+			try(FlightLogWriter writer = new FlightLogWriter(file, startPoint, sensors, sensorCoords)) {
+				writer.writePaths(paths);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,389 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Arrays;
+
+// Finds the shortest circuit through every node of a matrix of move counts, or the shortest it can within a time limit
+// Up to HELD_KARP_LIMIT nodes the Held-Karp dynamic programme is used, with the subsets of nodes as bitmasks indexing flat primitive tables.
+// Larger matrices are searched depth first (branch and bound), starting from a circuit that is already known, such as the one TourImprover returns.
+// A partial path is abandoned once a lower bound on any circuit completing it is no shorter than the best so far. Two bounds are used, and the larger is taken:
+//   - reducing the rows and then the columns of the matrix left to travel, as in Little's algorithm, which respects the direction of every leg
+//   - the Held-Karp bound, a minimum spanning tree of the nodes left to travel in which each node's edges carry a penalty. The penalties are tuned once, by
+//     subgradient optimisation of the 1-tree of the whole matrix, so that the tree's nodes have as close to two edges each as possible. This bound
+//     treats each leg as the shorter of its two directions, but is usually far tighter.
+// A path is also abandoned if the same set of nodes has already been visited, ending at the same node, in no more moves. These paths are remembered in an
+// open addressing table of primitive arrays, which simply stops taking new paths once it is full.
+// If the time runs out, the best circuit found so far is returned, and isOptimal reports that it was not proved to be the shortest.
+public class ExactTour {
+
+	public static final int HELD_KARP_LIMIT = 16;
+	private static final int DEADLINE_CHECK_INTERVAL = 4096; // Nodes of the search between each look at the clock
+	private static final int SUBGRADIENT_ITERATIONS = 1000;
+	private static final int MAX_REMEMBERED_NODES = 57; // The most nodes for which a visited set and its last node fit in a long
+	private static final int REMEMBERED_CAPACITY = 1 << 20; // Must be a power of two
+	private static final double EPSILON = 1e-9; // Leaves room for rounding error in the Held-Karp bound, as any real circuit has a whole number length
+
+	private final int[][] cost;
+	private final int n;
+
+	private long deadline;
+	private boolean optimal;
+	private int[] best;
+	private long bestLength;
+
+	// State of the branch and bound search
+	private int[][] successors; // Every node other than 0 and itself, nearest first
+	private boolean[] visited;
+	private int[] path;
+	private long searched;
+	private boolean timedOut;
+	private boolean proved;
+	private int[] rowMin;
+	private int[][] undirected; // The shorter of the two directions between each pair of nodes
+	private double[] penalty;
+	private double rootBound;
+	private double[] treeDistance; // Scratch space for Prim's algorithm
+	private boolean[] inTree;
+	private long visitedMask;
+	private long[] rememberedKey; // Each visited set times n plus the last node, offset by one so that 0 marks an empty slot
+	private int[] rememberedLength;
+	private int rememberedCount;
+
+	public ExactTour(int[][] cost) {
+		this.cost = cost;
+		this.n = cost.length;
+	}
+
+	// Takes a known order beginning and ending at node 0, and returns one which is never longer
+	// The known order itself is returned if nothing shorter is found.
+	public int[] solve(int[] known, long budgetMillis) {
+		return solve(known, budgetMillis, n <= HELD_KARP_LIMIT);
+	}
+
+	// As above, choosing the method rather than going by the number of nodes, so that the two can be checked against each other
+	int[] solve(int[] known, long budgetMillis, boolean useHeldKarp) {
+		this.deadline = System.nanoTime() + budgetMillis * 1_000_000;
+		this.best = known;
+		this.bestLength = length(known);
+		this.optimal = false;
+		if(n < 4) { // Two or fewer sensors can only be visited in one order, either way round
+			optimal = true;
+			return known;
+		}
+		if(useHeldKarp) {
+			heldKarp();
+		} else {
+			branchAndBound();
+		}
+		return best;
+	}
+
+	// Whether the last order returned by solve was proved to be the shortest
+	public boolean isOptimal() {
+		return optimal;
+	}
+
+	public long length(int[] order) {
+		long sum = 0;
+		for(int k = 0; k < order.length - 1; k++) {
+			sum += cost[order[k]][order[k+1]];
+		}
+		return sum;
+	}
+
+	// shortest[mask * m + j] is the length of the shortest path from node 0 through every node in mask, ending at node j+1 (which must be in mask)
+	// Nodes 1 to n-1 are the bits of the mask, as node 0 is always first.
+	private void heldKarp() {
+		final int m = n - 1;
+		final int full = (1 << m) - 1;
+		int[] shortest = new int[(full + 1) * m];
+		byte[] previous = new byte[(full + 1) * m]; // The node before j+1 on that path, again numbered from 0 for node 1, or -1 for node 0
+		Arrays.fill(shortest, Integer.MAX_VALUE);
+		for(int j = 0; j < m; j++) {
+			shortest[(1 << j) * m + j] = cost[0][j+1];
+			previous[(1 << j) * m + j] = -1;
+		}
+
+		for(int mask = 1; mask <= full; mask++) {
+			if((mask & (DEADLINE_CHECK_INTERVAL - 1)) == 0 && System.nanoTime() > deadline) return; // Keeps the known order
+			for(int j = 0; j < m; j++) {
+				var here = shortest[mask * m + j];
+				if(here == Integer.MAX_VALUE || (mask & (1 << j)) == 0) continue;
+				int[] row = cost[j+1];
+				for(int k = 0; k < m; k++) {
+					if((mask & (1 << k)) != 0) continue;
+					var cell = (mask | (1 << k)) * m + k;
+					var through = here + row[k+1];
+					if(through < shortest[cell]) {
+						shortest[cell] = through;
+						previous[cell] = (byte) j;
+					}
+				}
+			}
+		}
+
+		var last = 0;
+		long length = Long.MAX_VALUE;
+		for(int j = 0; j < m; j++) {
+			long total = (long) shortest[full * m + j] + cost[j+1][0];
+			if(total < length) {
+				length = total;
+				last = j;
+			}
+		}
+		optimal = true;
+		if(length >= bestLength) return;
+
+		int[] order = new int[n + 1];
+		var mask = full;
+		for(int k = n - 1; k >= 1; k--) {
+			order[k] = last + 1;
+			var before = previous[mask * m + last];
+			mask &= ~(1 << last);
+			last = before;
+		}
+		best = order;
+		bestLength = length;
+	}
+
+	private void branchAndBound() {
+		successors = new int[n][];
+		for(int i = 0; i < n; i++) {
+			final int from = i;
+			successors[i] = java.util.stream.IntStream.range(1, n)
+					.filter(j -> j != from)
+					.boxed()
+					.sorted((x, y) -> Integer.compare(cost[from][x], cost[from][y])) // The sort is stable, so ties keep the lowest numbered node first
+					.mapToInt(Integer::intValue)
+					.toArray();
+		}
+		visited = new boolean[n];
+		path = new int[n + 1];
+		rowMin = new int[n];
+		searched = 0;
+		timedOut = false;
+		proved = false;
+
+		undirected = new int[n][n];
+		for(int i = 0; i < n; i++) {
+			for(int j = 0; j < n; j++) {
+				undirected[i][j] = Math.min(cost[i][j], cost[j][i]);
+			}
+		}
+		treeDistance = new double[n];
+		inTree = new boolean[n];
+		choosePenalties();
+		if(rootBound > bestLength - 1 + EPSILON) { // The known order is already as short as a circuit can be
+			optimal = true;
+			return;
+		}
+
+		if(n <= MAX_REMEMBERED_NODES) {
+			rememberedKey = new long[REMEMBERED_CAPACITY];
+			rememberedLength = new int[REMEMBERED_CAPACITY];
+			rememberedCount = 0;
+		}
+
+		visited[0] = true;
+		visitedMask = 1;
+		search(1, 0, 0);
+		optimal = !timedOut;
+	}
+
+	// Extends the path, which holds depth nodes and ends at last, with every unvisited node in turn
+	private void search(int depth, int last, long length) {
+		if(depth == n) {
+			long total = length + cost[last][0];
+			if(total < bestLength) {
+				bestLength = total;
+				best = Arrays.copyOf(path, n + 1); // path[n] is already 0, so the order returns to the start
+				if(rootBound > bestLength - 1 + EPSILON) proved = true; // Nothing shorter can exist, so the rest of the search is skipped
+			}
+			return;
+		}
+		if(proved) return;
+		if(++searched % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) timedOut = true;
+		if(timedOut || (rememberedKey != null && !remember(visitedMask * n + last, length))) return;
+		if(length + lowerBound(last) >= bestLength) return;
+		if(depth > 1 && length + treeBound(last) > bestLength - 1 + EPSILON) return;
+
+		for(int next : successors[last]) {
+			if(visited[next]) continue;
+			var through = length + cost[last][next];
+			if(through >= bestLength) break; // The successors are nearest first, so every later one is at least as long
+			visited[next] = true;
+			visitedMask |= 1L << next;
+			path[depth] = next;
+			search(depth + 1, next, through);
+			visited[next] = false;
+			visitedMask &= ~(1L << next);
+		}
+	}
+
+	// Records that a path with the given key took the given number of moves, returning false if an earlier path with the same key took no more
+	private boolean remember(long key, long length) {
+		var slot = (int) (mix(key) & (REMEMBERED_CAPACITY - 1));
+		while(rememberedKey[slot] != 0) {
+			if(rememberedKey[slot] == key + 1) {
+				if(rememberedLength[slot] <= length) return false;
+				rememberedLength[slot] = (int) length;
+				return true;
+			}
+			slot = (slot + 1) & (REMEMBERED_CAPACITY - 1);
+		}
+		if(rememberedCount < REMEMBERED_CAPACITY / 2) { // Keeps the table at most half full, so probes stay short
+			rememberedKey[slot] = key + 1;
+			rememberedLength[slot] = (int) length;
+			rememberedCount++;
+		}
+		return true;
+	}
+
+	private static long mix(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return key ^ (key >>> 29);
+	}
+
+	// Tunes the penalties of the Held-Karp bound, keeping those which give the largest bound on the whole circuit
+	// Each step raises the penalty of nodes with more than two edges in the 1-tree and lowers it for those with one, by a step which shrinks as the bound stops improving.
+	private void choosePenalties() {
+		double[] current = new double[n];
+		int[] degree = new int[n];
+		penalty = new double[n];
+		rootBound = Double.NEGATIVE_INFINITY;
+		var scale = 2.0;
+		var sinceImproved = 0;
+		for(int iteration = 0; iteration < SUBGRADIENT_ITERATIONS && System.nanoTime() < deadline; iteration++) {
+			var bound = oneTree(current, degree);
+			if(bound > rootBound + EPSILON) {
+				rootBound = bound;
+				penalty = current.clone();
+				sinceImproved = 0;
+			} else if(++sinceImproved % 20 == 0) {
+				scale /= 2;
+			}
+
+			long squares = 0;
+			for(int i = 0; i < n; i++) {
+				squares += (long) (degree[i] - 2) * (degree[i] - 2);
+			}
+			if(squares == 0 || bound > bestLength - 1 + EPSILON) break; // The 1-tree is a circuit, or already proves the known order is the shortest
+			var step = scale * (bestLength - bound) / squares;
+			for(int i = 0; i < n; i++) {
+				current[i] += step * (degree[i] - 2);
+			}
+		}
+	}
+
+	// The penalised length of the minimum 1-tree: a spanning tree of nodes 1 to n-1, joined to node 0 by its two shortest penalised edges
+	// The degree of each node in the 1-tree is written to degree.
+	private double oneTree(double[] pen, int[] degree) {
+		Arrays.fill(degree, 0);
+		Arrays.fill(inTree, false);
+		Arrays.fill(treeDistance, Double.POSITIVE_INFINITY);
+		int[] parent = new int[n];
+		var total = 0.0;
+		treeDistance[1] = 0;
+		for(int added = 1; added < n; added++) {
+			var next = -1;
+			for(int v = 1; v < n; v++) {
+				if(!inTree[v] && (next == -1 || treeDistance[v] < treeDistance[next])) next = v;
+			}
+			inTree[next] = true;
+			total += treeDistance[next];
+			if(added > 1) {
+				degree[next]++;
+				degree[parent[next]]++;
+			}
+			for(int v = 1; v < n; v++) {
+				var weight = undirected[next][v] + pen[next] + pen[v];
+				if(!inTree[v] && weight < treeDistance[v]) {
+					treeDistance[v] = weight;
+					parent[v] = next;
+				}
+			}
+		}
+
+		var first = -1;
+		var second = -1;
+		for(int v = 1; v < n; v++) {
+			var weight = undirected[0][v] + pen[0] + pen[v];
+			if(first == -1 || weight < undirected[0][first] + pen[0] + pen[first]) {
+				second = first;
+				first = v;
+			} else if(second == -1 || weight < undirected[0][second] + pen[0] + pen[second]) {
+				second = v;
+			}
+		}
+		total += undirected[0][first] + undirected[0][second] + 2 * pen[0] + pen[first] + pen[second];
+		degree[0] = 2;
+		degree[first]++;
+		degree[second]++;
+
+		for(int i = 0; i < n; i++) {
+			total -= 2 * pen[i];
+		}
+		return total;
+	}
+
+	// The Held-Karp bound on the rest of any circuit continuing from last through every unvisited node and back to 0
+	// The rest of the circuit is a path from last to 0, whose unvisited nodes have two edges each and whose ends have one, so it is a spanning tree of those nodes.
+	// Its length is therefore at least the penalised minimum spanning tree less those penalties, whatever the penalties are.
+	private double treeBound(int last) {
+		var total = 0.0;
+		var count = 0;
+		for(int v = 0; v < n; v++) {
+			inTree[v] = visited[v] && v != last && v != 0; // Nodes already passed through are left out of the tree
+			treeDistance[v] = Double.POSITIVE_INFINITY;
+			if(!inTree[v]) {
+				count++;
+				total -= ((v == last || v == 0) ? 1 : 2) * penalty[v];
+			}
+		}
+		treeDistance[last] = 0;
+		for(int added = 0; added < count; added++) {
+			var next = -1;
+			for(int v = 0; v < n; v++) {
+				if(!inTree[v] && (next == -1 || treeDistance[v] < treeDistance[next])) next = v;
+			}
+			inTree[next] = true;
+			total += treeDistance[next];
+			int[] row = undirected[next];
+			for(int v = 0; v < n; v++) {
+				var weight = row[v] + penalty[next] + penalty[v];
+				if(!inTree[v] && weight < treeDistance[v]) treeDistance[v] = weight;
+			}
+		}
+		return total;
+	}
+
+	// A lower bound on the rest of any circuit continuing from last through every unvisited node and back to 0
+	// Each of last and the unvisited nodes must be left exactly once, towards an unvisited node or 0, so the cheapest way out of each is subtracted from its row.
+	// Each of the unvisited nodes and 0 must then be entered exactly once, so the cheapest remaining way into each is added on top.
+	// There is always at least one unvisited node here, so last may not go straight back to 0.
+	private long lowerBound(int last) {
+		long total = 0;
+		for(int i = 0; i < n; i++) {
+			if(visited[i] && i != last) continue;
+			var min = Integer.MAX_VALUE;
+			int[] row = cost[i];
+			for(int j = 0; j < n; j++) {
+				if(j == i || (visited[j] && j != 0) || (i == last && j == 0)) continue;
+				if(row[j] < min) min = row[j];
+			}
+			rowMin[i] = min;
+			total += min;
+		}
+		for(int j = 0; j < n; j++) {
+			if(visited[j] && j != 0) continue;
+			var min = Integer.MAX_VALUE;
+			for(int i = 0; i < n; i++) {
+				if(i == j || (visited[i] && i != last) || (i == last && j == 0)) continue;
+				var reduced = cost[i][j] - rowMin[i];
+				if(reduced < min) min = reduced;
+			}
+			total += min;
+		}
+		return total;
+	}
+
+}
@@ -1,196 +1,499 @@
 package uk.ac.ed.inf.aqmaps;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import org.javatuples.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class FlightController {
 	
 	private final Coords START_POINT;
 	private List<NoFlyZone> noFlyZones;
+	private NoFlyIndex noFlyIndex;
 	private List<Coords> coordsList;
-	private FlightPath[][] pathMatrix;
+	private LegEstimate[][] pathMatrix;
 	private List<String> sensorNames;
-	private int[][] connectivityMatrix;
+	private LegPlanner planner;
+	private Estimates estimates;
+	private LegCache.Scope cacheScope; // Where estimates are looked up before simulating them, or null if they are not cached
+	private final LegCache legCache;
+	private int threads;
+	private long improvementBudget = DEFAULT_IMPROVEMENT_BUDGET;
+	private long portfolioBudget = 0; // In milliseconds, where 0 orders the sensors with the sorted edges circuit alone
+	private long seed = 0;
+	private long exactBudget = 0; // In milliseconds, where 0 skips the exact search
+	private double speculationTolerance = NO_SPECULATION; // In degrees, how far a speculatively built leg may be moved to join on to the last
+	private int[] tour = null; // The order chosen by generateOrder, kept so that replan can repair it
+	private final List<Integer> unplaced = new ArrayList<Integer>(); // Sensors added or moved since the tour was chosen, which replan inserts into it
+	
+	public static final long DEFAULT_IMPROVEMENT_BUDGET = 50; // In milliseconds
+	public static final int PORTFOLIO_CANDIDATES = 3; // How many of the portfolio's circuits are built for real
+	public static final double NO_SPECULATION = -1;
+	
+	// How the pathMatrix estimates each leg: SIMULATED runs the planner for every pair of points, while VISIBILITY uses shortest distances around the zones from a VisibilityGraph
+	// Only the legs of the chosen order are ever simulated with visibility estimates, which is much quicker when there are many sensors or zones.
+	public enum Estimates { SIMULATED, VISIBILITY }
 	
 	public FlightController(List<NoFlyZone> noFly, List<Coords> coords, Coords start, List<String> sensors) {
+		this(noFly, coords, start, sensors, Runtime.getRuntime().availableProcessors());
+	}
+	
+	// The threads argument sets how many worker threads build the pathMatrix. A value of 1 builds it sequentially on the calling thread.
+	public FlightController(List<NoFlyZone> noFly, List<Coords> coords, Coords start, List<String> sensors, int threads) {
+		this(noFly, coords, start, sensors, threads, FlightPath.GREEDY);
+	}
+	
+	// The planner is used for every flightPath, both when estimating the pathMatrix and when building the final paths
+	public FlightController(List<NoFlyZone> noFly, List<Coords> coords, Coords start, List<String> sensors, int threads, LegPlanner planner) {
+		this(noFly, new NoFlyIndex(noFly), coords, start, sensors, threads, planner);
+	}
+	
+	// Takes an already built index of the no-fly zones, so that controllers planning many days with the same zones can share one
+	public FlightController(List<NoFlyZone> noFly, NoFlyIndex noFlyIndex, List<Coords> coords, Coords start, List<String> sensors, int threads, LegPlanner planner) {
+		this(noFly, noFlyIndex, coords, start, sensors, threads, planner, Estimates.SIMULATED);
+	}
+	
+	public FlightController(List<NoFlyZone> noFly, NoFlyIndex noFlyIndex, List<Coords> coords, Coords start, List<String> sensors, int threads, LegPlanner planner, Estimates estimates) {
+		this(noFly, noFlyIndex, coords, start, sensors, threads, planner, estimates, null);
+	}
+	
+	// Simulated estimates are looked up in the given cache first, and any that are missing are added to it. A null cache simulates every leg.
+	@SuppressWarnings("try")
+	public FlightController(List<NoFlyZone> noFly, NoFlyIndex noFlyIndex, List<Coords> coords, Coords start, List<String> sensors, int threads, LegPlanner planner, Estimates estimates, LegCache legCache) {
+		this.planner = planner;
+		this.legCache = legCache;
+		this.cacheScope = (legCache == null) ? null : legCache.scope(noFly, planner);
+		this.estimates = estimates;
 		this.noFlyZones = noFly;
+		this.noFlyIndex = noFlyIndex;
 		this.coordsList = coords;
 		this.START_POINT = start;
 		this.sensorNames = sensors;
+		this.threads = threads;
 		coordsList.add(0, START_POINT);
-		this.pathMatrix = generatePathMatrix(coords);
-		this.connectivityMatrix = new int[coordsList.size()][coordsList.size()];
+		this.pathMatrix = new LegEstimate[coords.size()][coords.size()];
+		try(Metrics.Timer timer = Metrics.time(Metrics.Phase.MATRIX)) {
+			fillPathMatrix();
+		}
 	}
 
 	// The primary algorithm for generating the order in which we visit the sensors
 	// This uses the sorted edges approach to form a hamiltonian circuit - read documentation for more details
+	// The circuit is then improved with 2-opt and Or-opt moves, within the improvement budget.
+	@SuppressWarnings("try")
 	public List<FlightPath> generateOrder() {
-		List<Integer> usedNodes = new ArrayList<Integer>();
-		List<Integer> fullNodes = new ArrayList<Integer>();
-		
-		for(int i = 0; i <= 33; i++) {
-			usedNodes.add(i);
+		int[][] moveCounts = getMoveCounts();
+		if(portfolioBudget > 0) {
+			return generateOrderFromPortfolio(moveCounts);
+		}
+		TourImprover improver = new TourImprover(moveCounts);
+		int[] circuit;
+		int[] improved;
+		try(Metrics.Timer timer = Metrics.time(Metrics.Phase.ORDERING)) {
+			circuit = GreedyEdgeTour.build(moveCounts);
+			improved = solveExactly(moveCounts, improver.improve(circuit, improvementBudget));
 		}
+		unplaced.clear();
+		if(Arrays.equals(improved, circuit)) {
+			tour = circuit;
+			return createPathList(toList(circuit));
+		}
+		System.out.println("Improved estimated path length from " + improver.length(circuit) + " to " + improver.length(improved));
 		
-		while(usedNodes.size() != 0) {
-			Triplet<Integer, Integer, Integer> shortest = new Triplet<Integer, Integer, Integer>(-1, -1, 99999);
-			for(int used : usedNodes) {
-				Triplet<Integer, Integer, Integer> newShortest = getShortestValidDist(used, fullNodes);
-				if(newShortest.getValue2() < shortest.getValue2()) {
-					shortest = newShortest;
-				}
-			}
-			
-			System.out.println("Creating link between " + shortest.getValue0() + " and " + shortest.getValue1() + " of length " + shortest.getValue2());
-			connectivityMatrix[shortest.getValue0()][shortest.getValue1()] = 1;
-			connectivityMatrix[shortest.getValue1()][shortest.getValue0()] = 1;
-
-			for(int node : usedNodes) {
-				if(isDegree(node, 2)) {
-					fullNodes.add(node);
-				}
-			}
-			
-			for(int node : fullNodes) {
-				if(usedNodes.contains(node)) {
-					usedNodes.remove(usedNodes.indexOf(node));
-				}
+		// The matrix only estimates each path, so we build both orders for real and keep whichever is actually shorter
+		List<FlightPath> original = createPathList(toList(circuit));
+		List<FlightPath> candidate = createPathList(toList(improved));
+		if(totalMoves(candidate) <= totalMoves(original)) {
+			tour = improved;
+			return candidate;
+		} else {
+			tour = circuit;
+			return original;
+		}
+	}
+	
+	// Orders the sensors with a TourPortfolio, running every strategy across the controller's threads
+	// The matrix only estimates each path, so the shortest few circuits are built for real and whichever is actually shortest is kept.
+	@SuppressWarnings("try")
+	private List<FlightPath> generateOrderFromPortfolio(int[][] moveCounts) {
+		List<TourPortfolio.Candidate> candidates;
+		try(Metrics.Timer timer = Metrics.time(Metrics.Phase.ORDERING)) {
+			candidates = new TourPortfolio(moveCounts, seed, threads).run(portfolioBudget);
+			if(!candidates.isEmpty()) {
+				int[] shortest = candidates.get(0).getOrder();
+				int[] exact = solveExactly(moveCounts, shortest);
+				if(exact != shortest) candidates.add(0, new TourPortfolio.Candidate("exact", exact, new TourImprover(moveCounts).length(exact)));
 			}
 		}
+		unplaced.clear();
+		if(candidates.isEmpty()) { // Only possible if the deadline passed before any strategy finished
+			System.out.println("No tour strategy finished in time, using the sorted edges circuit.");
+			tour = GreedyEdgeTour.build(moveCounts);
+			return createPathList(toList(tour));
+		}
 		
-		// Form the order using the connectivity matrix
-		List<Integer> order = traverseConnections(0);
-		
-		return createPathList(order);
-	}
-
-	// Takes an ordered list of integers as input, and generates the final list of flightPath to be used as output.
-	// The function creates new flightPaths rather than using the pathMatrix, allowing it to ensure one paths begins where the previous ended.
-	private List<FlightPath> createPathList(List<Integer> order) {
-		List<FlightPath> pathList = new ArrayList<FlightPath>();
-		pathList.add(pathMatrix[order.get(0)][order.get(1)]); // We can rely on the path from 0 to the first node, as we start from the exact node position.
-		System.out.println("Adding line path between " + order.get(0) + " and " + order.get(1));
-		for(int i = 1; i < order.size()-1; i++) {
-			
-			List<Move> prevMoves = pathList.get(i-1).getMoveList();
-			Coords prevEnd = prevMoves.get(prevMoves.size()-1).getEnd(); // Fetches the point at which our last flightpath ended
-			System.out.println("Adding line path between " + order.get(i) + " and " + order.get(i+1));
-			pathList.add(new FlightPath(prevEnd, coordsList.get(order.get(i+1)), noFlyZones, sensorNames.get(order.get(i+1)))); // Add the path between the last node's end and the new node to connect to
-
+		List<FlightPath> best = null;
+		TourPortfolio.Candidate chosen = null;
+		for(int c = 0; c < Math.min(PORTFOLIO_CANDIDATES, candidates.size()); c++) {
+			List<FlightPath> paths = createPathList(toList(candidates.get(c).getOrder()));
+			if(best == null || totalMoves(paths) < totalMoves(best)) {
+				best = paths;
+				chosen = candidates.get(c);
+			}
 		}
-		return pathList;
+		tour = chosen.getOrder();
+		System.out.println("Chose the " + chosen.getStrategy() + " circuit from " + candidates.size() + " candidates, with estimated path length " + chosen.getLength());
+		return best;
 	}
-
-	// Calculates the degree of a given node using the connectivityMatrix.
-	private boolean isDegree(int node, int degree) {
-	    int sum = 0;
-	    for (int value : connectivityMatrix[node]) { // Check how many nodes are connected to the node in question.
-	        sum += value;
-	    }
-	    
-	    if(sum == degree) {
-	    	return true;
-	    } else {
-	    	return false;
-	    }
+	
+	// Searches for the shortest circuit by the pathMatrix estimates within the exact budget, starting from the best circuit found so far
+	// Returns the given circuit itself unless a shorter one is found.
+	private int[] solveExactly(int[][] moveCounts, int[] known) {
+		if(exactBudget <= 0) return known;
+		ExactTour solver = new ExactTour(moveCounts);
+		int[] exact = solver.solve(known, exactBudget);
+		if(solver.isOptimal()) {
+			System.out.println("Exact search proved the shortest estimated path length is " + solver.length(exact));
+		} else {
+			System.out.println("Exact search ran out of time, with the shortest estimated path length found being " + solver.length(exact));
+		}
+		return exact;
 	}
-
-	// Checks whether making a given connection would complete a loop before all nodes were included in it
-	private boolean wouldCompleteLoopEarly(int from, int to) {
-		var connectionList = traverseConnections(from);
-		var wouldComplete = false;
-		var readyToComplete = false;
-		
-		if(connectionList.get(connectionList.size()-1) == to) {
-			wouldComplete = true;
+	
+	// Brings the route up to date after sensors or no-fly zones have changed, returning the new list of flightPaths
+	// Only the legs invalidated by the changes are estimated again. Rather than ordering the sensors from scratch, the previous order is repaired:
+	// removed sensors have already been cut out of it, new and moved sensors are inserted wherever they add the fewest moves, and the result is improved within the improvement budget.
+	// If generateOrder has not been called yet there is no order to repair, so this is the same as calling it.
+	@SuppressWarnings("try")
+	public List<FlightPath> replan() {
+		try(Metrics.Timer timer = Metrics.time(Metrics.Phase.MATRIX)) {
+			fillPathMatrix();
 		}
-		
-		if(connectionList.size() == coordsList.size()) {
-			readyToComplete = true;
+		if(tour == null) {
+			return generateOrder();
 		}
 		
-		if(wouldComplete && !readyToComplete) {
-			return true;
-		} else {
-			return false;
+		int[][] moveCounts = getMoveCounts();
+		try(Metrics.Timer timer = Metrics.time(Metrics.Phase.ORDERING)) {
+			for(int node : unplaced) {
+				tour = insertCheapest(tour, node, moveCounts);
+			}
+			unplaced.clear();
+			tour = new TourImprover(moveCounts).improve(tour, improvementBudget);
 		}
+		return createPathList(toList(tour));
 	}
 	
-	// Uses the connectivity matrix to form an ordered list from the given point
-	// This is used to check where a current line segment ends, and to form the final order.
-	private List<Integer> traverseConnections(int from) {
-		var prevNode = -1;
-		var currNode = from;
-		var nextNode = -1;
-		
-		List<Integer> order = new ArrayList<Integer>();
-		order.add(from);
+	// Adds a sensor to be visited, returning its index. Only the legs to and from it need estimating when replan is called.
+	public int addSensor(Coords coords, String name) {
+		coordsList.add(coords);
+		sensorNames.add(name);
+		var n = coordsList.size();
+		LegEstimate[][] matrix = new LegEstimate[n][];
+		for(int i = 0; i < n - 1; i++) {
+			matrix[i] = Arrays.copyOf(pathMatrix[i], n); // The new column is left empty, to be estimated by replan
+		}
+		matrix[n - 1] = new LegEstimate[n];
+		pathMatrix = matrix;
+		unplaced.add(n - 1);
+		return n - 1;
+	}
+	
+	// Removes the sensor at the given index, joining its neighbours in the order together. Every later sensor moves down one index, as it does in coordsList.
+	public void removeSensor(int index) {
+		checkSensor(index);
+		coordsList.remove(index);
+		sensorNames.remove(index);
+		var n = coordsList.size();
+		LegEstimate[][] matrix = new LegEstimate[n][n];
+		for(int i = 0, k = 0; i <= n; i++) {
+			if(i == index) continue;
+			System.arraycopy(pathMatrix[i], 0, matrix[k], 0, index);
+			System.arraycopy(pathMatrix[i], index + 1, matrix[k], index, n - index);
+			k++;
+		}
+		pathMatrix = matrix;
 		
-		// Find the first link, as we require a nextNode to loop
-		for(int i = 0; i < connectivityMatrix[from].length; i++) {
-			if(connectivityMatrix[from][i] == 1) {
-				nextNode = i;
-				order.add(nextNode);
-				break;
+		unplaced.remove(Integer.valueOf(index));
+		for(int i = 0; i < unplaced.size(); i++) {
+			if(unplaced.get(i) > index) unplaced.set(i, unplaced.get(i) - 1);
+		}
+		if(tour != null) {
+			tour = without(tour, index);
+			for(int i = 0; i < tour.length; i++) {
+				if(tour[i] > index) tour[i]--;
 			}
 		}
-		
-		// If there is no connected node, we early exit
-		if(nextNode == -1) {
-			return order;
+	}
+	
+	// Moves the sensor at the given index. Its legs are estimated again and it is reinserted into the order when replan is called.
+	public void moveSensor(int index, Coords coords) {
+		checkSensor(index);
+		coordsList.set(index, coords);
+		for(int i = 0; i < pathMatrix.length; i++) {
+			pathMatrix[i][index] = null;
+			pathMatrix[index][i] = null;
 		}
+		if(tour != null && !unplaced.contains(index)) {
+			tour = without(tour, index);
+			unplaced.add(index);
+		}
+	}
+	
+	// Adds, removes or replaces a no-fly zone, forgetting only the estimates of the legs whose corridor the old or new zone comes within a move of
+	// The estimates of the other legs are unchanged for the greedy planner, as it never tested a move that could reach the zone.
+	// With the A* planner they remain valid paths, but may no longer be the shortest if a zone was removed.
+	public void addNoFlyZone(NoFlyZone zone) {
+		changeNoFlyZone(null, zone);
+	}
+	
+	public void removeNoFlyZone(NoFlyZone zone) {
+		changeNoFlyZone(zone, null);
+	}
+	
+	public void replaceNoFlyZone(NoFlyZone oldZone, NoFlyZone newZone) {
+		changeNoFlyZone(oldZone, newZone);
+	}
+	
+	private void changeNoFlyZone(NoFlyZone oldZone, NoFlyZone newZone) {
+		List<NoFlyZone> zones = new ArrayList<NoFlyZone>(noFlyZones); // The list may be shared with other controllers, so it is never changed in place
+		if(oldZone != null && !zones.remove(oldZone)) {
+			throw new IllegalArgumentException("Unknown no-fly zone " + oldZone.getName());
+		}
+		if(newZone != null) zones.add(newZone);
+		noFlyZones = zones;
+		noFlyIndex = new NoFlyIndex(zones);
+		cacheScope = (legCache == null) ? null : legCache.scope(zones, planner);
 		
-		// Until the links stop, or we loop back to where we came from...
-		while(nextNode != currNode && nextNode != from) {
-			prevNode = currNode;
-			currNode = nextNode;
-			for(int i = 0; i < connectivityMatrix[currNode].length; i++) {
-				if(connectivityMatrix[currNode][i] == 1 && i != prevNode) {
-					nextNode = i;
-					order.add(nextNode);
+		for(int i = 0; i < pathMatrix.length; i++) {
+			for(int j = 0; j < pathMatrix.length; j++) {
+				LegEstimate leg = pathMatrix[i][j];
+				if(leg != null && ((oldZone != null && leg.mayBeAffectedBy(oldZone)) || (newZone != null && leg.mayBeAffectedBy(newZone)))) {
+					pathMatrix[i][j] = null;
 				}
 			}
 		}
+	}
+	
+	// Index 0 is the start point, which cannot be changed
+	private void checkSensor(int index) {
+		if(index < 1 || index >= coordsList.size()) {
+			throw new IndexOutOfBoundsException("No sensor at index " + index);
+		}
+	}
+	
+	// Inserts a node between the pair of consecutive nodes in the order where it adds the fewest moves
+	static int[] insertCheapest(int[] order, int node, int[][] cost) {
+		var best = 0;
+		var bestIncrease = Long.MAX_VALUE;
+		for(int p = 0; p < order.length - 1; p++) {
+			long increase = (long) cost[order[p]][node] + cost[node][order[p+1]] - cost[order[p]][order[p+1]];
+			if(increase < bestIncrease) {
+				bestIncrease = increase;
+				best = p;
+			}
+		}
+		int[] result = new int[order.length + 1];
+		System.arraycopy(order, 0, result, 0, best + 1);
+		result[best + 1] = node;
+		System.arraycopy(order, best + 1, result, best + 2, order.length - best - 1);
+		return result;
+	}
+	
+	// Removes a node from the order, joining the nodes either side of it
+	private static int[] without(int[] order, int node) {
+		int[] result = new int[order.length - 1];
+		var k = 0;
+		for(int visit : order) {
+			if(visit != node) result[k++] = visit;
+		}
+		return result;
+	}
+	
+	// Sets how long, in milliseconds, generateOrder may spend improving the circuit. 0 disables improvement.
+	public void setImprovementBudget(long millis) {
+		this.improvementBudget = millis;
+	}
+	
+	// Orders the sensors with a TourPortfolio instead of the sorted edges circuit, within the given number of milliseconds. 0 turns it off.
+	// The seed decides the random restarts, so the same seed always gives the same order unless the deadline cuts a strategy short.
+	// The portfolio improves each of its circuits itself, so the improvement budget is not used.
+	public void setPortfolio(long seed, long millis) {
+		this.seed = seed;
+		this.portfolioBudget = millis;
+	}
+	
+	// Sets how long, in milliseconds, generateOrder may spend searching for the shortest circuit after the heuristics have finished. 0 skips the search.
+	public void setExactBudget(long millis) {
+		this.exactBudget = millis;
+	}
+	
+	// Builds the final legs speculatively, all at once across the controller's threads, rather than one after another. NO_SPECULATION turns it off.
+	// Each leg is built from where its matrix estimate predicts the last leg will end. A leg which starts within the tolerance of where the last really ended is moved to join on to it,
+	// as long as it still avoids every zone and reaches its sensor, and any other leg is built again. A tolerance of 0 only keeps legs which join exactly, so the path is identical to the one built in turn.
+	// Speculation needs more than one thread, and is ignored otherwise.
+	public void setSpeculation(double tolerance) {
+		this.speculationTolerance = tolerance;
+	}
+	
+	private static List<Integer> toList(int[] circuit) {
+		List<Integer> order = new ArrayList<Integer>();
+		for(int node : circuit) {
+			order.add(node);
+		}
 		return order;
 	}
+	
+	private static int totalMoves(List<FlightPath> pathList) {
+		var sum = 0;
+		for(FlightPath path : pathList) {
+			sum += path.getMoveCount();
+		}
+		return sum;
+	}
 
-	// Returns a Triplet containing the index we are interested in, the node closest to it, and the distance to that node (in moves)
-	private Triplet<Integer, Integer, Integer> getShortestValidDist(int index, List<Integer> fullNodes) {
-		
-		int shortestNode = 0;
-		int shortestDistance = 99999999;
-		
-		for(int i = 0; i < pathMatrix[index].length; i++) { // Iterate through all paths from the given index node
-			if((i != index) && (pathMatrix[index][i].getMoveCount() < shortestDistance)) { // If we have a new shortest node...
-				if(!wouldCompleteLoopEarly(index, i) && !fullNodes.contains(i)) { // Check that none of our 'bad' conditions are true...
-					shortestNode = i; // If it reaches here, the node is a valid new shortest connection.
-					shortestDistance = pathMatrix[index][i].getMoveCount();
+	// Extracts the move count of every path in the pathMatrix, which is the distance measure used when ordering the sensors
+	private int[][] getMoveCounts() {
+		int[][] moveCounts = new int[pathMatrix.length][pathMatrix.length];
+		for(int i = 0; i < pathMatrix.length; i++) {
+			for(int j = 0; j < pathMatrix.length; j++) {
+				if(i != j) moveCounts[i][j] = pathMatrix[i][j].getMoveCount();
+			}
+		}
+		return moveCounts;
+	}
+
+	// Takes an ordered list of integers as input, and generates the final list of flightPath to be used as output.
+	// The function creates new flightPaths rather than using the pathMatrix, allowing it to ensure one paths begins where the previous ended.
+	@SuppressWarnings("try")
+	private List<FlightPath> createPathList(List<Integer> order) {
+		if(speculationTolerance >= 0 && threads > 1) {
+			return createPathListSpeculatively(order);
+		}
+		List<FlightPath> pathList = new ArrayList<FlightPath>();
+		try(Metrics.Timer timer = Metrics.time(Metrics.Phase.REBUILD)) {
+			// The pathMatrix only holds estimates, so even the first path is built here. It starts from the exact node position, so it matches its estimate.
+			pathList.add(new FlightPath(coordsList.get(order.get(0)), coordsList.get(order.get(1)), noFlyIndex, sensorNames.get(order.get(1)), planner));
+			if(Log.isDebug()) Log.debug("Adding line path between " + order.get(0) + " and " + order.get(1));
+			for(int i = 1; i < order.size()-1; i++) {
+				
+				Coords prevEnd = pathList.get(i-1).getMoveList().getFinalPos(); // Fetches the point at which our last flightpath ended
+				if(Log.isDebug()) Log.debug("Adding line path between " + order.get(i) + " and " + order.get(i+1));
+				pathList.add(new FlightPath(prevEnd, coordsList.get(order.get(i+1)), noFlyIndex, sensorNames.get(order.get(i+1)), planner)); // Add the path between the last node's end and the new node to connect to
+	
+			}
+		}
+		return pathList;
+	}
+
+	// Builds every leg in parallel from its predicted start, then walks them in order, keeping those which join on to the leg before within the tolerance
+	// Leg i is predicted to start where the matrix estimate of the leg into its start node ends. That estimate was built from the node before, so only the first two legs are predicted exactly,
+	// and the rest rely on the drone finishing each leg within a move or so of the same place whichever way it came. With a tolerance of 0 nearly every leg is built again.
+	@SuppressWarnings("try")
+	private List<FlightPath> createPathListSpeculatively(List<Integer> order) {
+		final int legs = order.size() - 1;
+		List<FlightPath> pathList = new ArrayList<FlightPath>();
+		try(Metrics.Timer timer = Metrics.time(Metrics.Phase.REBUILD)) {
+			Coords[] predicted = new Coords[legs];
+			predicted[0] = coordsList.get(order.get(0));
+			for(int i = 1; i < legs; i++) {
+				predicted[i] = pathMatrix[order.get(i-1)][order.get(i)].getEndPos();
+			}
+			FlightPath[] speculative = new FlightPath[legs];
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.submit(() -> IntStream.range(0, legs).parallel().forEach(i -> speculative[i] = new FlightPath(predicted[i], coordsList.get(order.get(i+1)), noFlyIndex, sensorNames.get(order.get(i+1)), planner))).join();
+			} finally {
+				pool.shutdown();
+			}
+			
+			var moved = 0;
+			var rebuilt = 0;
+			Coords start = predicted[0];
+			for(int i = 0; i < legs; i++) {
+				FlightPath leg = speculative[i];
+				if(start.getLng() != predicted[i].getLng() || start.getLat() != predicted[i].getLat()) {
+					var offset = Math.hypot(start.getLng() - predicted[i].getLng(), start.getLat() - predicted[i].getLat());
+					leg = (offset <= speculationTolerance) ? leg.translatedTo(start, noFlyIndex) : null;
+					if(leg != null) {
+						moved++;
+					} else {
+						leg = new FlightPath(start, coordsList.get(order.get(i+1)), noFlyIndex, sensorNames.get(order.get(i+1)), planner);
+						rebuilt++;
+					}
 				}
+				pathList.add(leg);
+				start = leg.getMoveList().getFinalPos();
 			}
+			if(Log.isDebug()) Log.debug("Speculative rebuild kept " + (legs - moved - rebuilt) + " legs as built, moved " + moved + " and built " + rebuilt + " again");
 		}
-		
-		return new Triplet<Integer, Integer, Integer>(index, shortestNode, shortestDistance);
+		return pathList;
 	}
 
-	// Generates the pathMatrix, giving us estimates of the number of moves to go between any two points on the map.
+	// Fills in the pathMatrix, giving us estimates of the number of moves to go between any two points on the map.
 	// The reason these are only estimates is that in reality we will almost never begin paths at the exact coordinates of a node.
-	private FlightPath[][] generatePathMatrix(List<Coords> coords) {
-		FlightPath[][] matrix = new FlightPath[coords.size()][coords.size()];
+	// Only the move count and end position of each path is needed here, so the paths are simulated without building their lists of moves.
+	// Only empty cells are estimated, so after a change this recomputes just the legs it invalidated.
+	// Every flightPath in the matrix is independent of the others, so rows are spread across a dedicated ForkJoinPool when more than one thread is requested.
+	// Each cell is written by exactly one task, so the result is identical to the sequential build.
+	private void fillPathMatrix() {
+		if(estimates == Estimates.VISIBILITY) {
+			fillFromVisibilityGraph();
+			return;
+		}
+		if(threads <= 1) {
+			for(int i = 0; i < pathMatrix.length; i++) {
+				fillPathRow(i);
+			}
+			return;
+		}
 		
-		for(int i = 0; i < coords.size(); i++) {
-			for(int j = 0; j < coords.size(); j++) {
-				FlightPath currPath = null;
-				
-				if(i != j) { // A flightPath is only valid if it connects two different points
-					currPath = new FlightPath(coords.get(i), coords.get(j), this.noFlyZones, sensorNames.get(j));
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(() -> IntStream.range(0, pathMatrix.length).parallel().forEach(i -> fillPathRow(i))).join();
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	// Estimates every missing flightPath from the shortest distances around the zones, only simulating legs which the graph cannot connect
+	// The graph is cheap to build, so it is built again each time rather than kept up to date as sensors and zones change.
+	// Its estimates have no corridor, so any change to the zones invalidates all of them.
+	private void fillFromVisibilityGraph() {
+		VisibilityGraph graph = new VisibilityGraph(noFlyZones, noFlyIndex, coordsList);
+		for(int i = 0; i < pathMatrix.length; i++) {
+			for(int j = 0; j < pathMatrix.length; j++) {
+				if(i != j && pathMatrix[i][j] == null) {
+					LegEstimate estimate = graph.estimate(i, j);
+					pathMatrix[i][j] = (estimate != null) ? estimate : FlightPath.estimate(coordsList.get(i), coordsList.get(j), noFlyIndex, planner);
 				}
-				
-				matrix[i][j] = currPath;
 			}
 		}
+	}
+	
+	// Estimates every missing flightPath starting from the node at the given index
+	private void fillPathRow(int i) {
+		LegEstimate[] row = pathMatrix[i];
 		
-		return matrix;
+		for(int j = 0; j < row.length; j++) {
+			if(i != j && row[j] == null) { // A flightPath is only valid if it connects two different points
+				row[j] = estimateLeg(coordsList.get(i), coordsList.get(j));
+			}
+		}
+	}
+	
+	// Simulates the leg between two points, unless it is already in the leg cache
+	private LegEstimate estimateLeg(Coords start, Coords end) {
+		if(cacheScope == null) {
+			return FlightPath.estimate(start, end, this.noFlyIndex, this.planner);
+		}
+		LegEstimate leg = cacheScope.get(start, end);
+		if(leg == null) {
+			leg = FlightPath.estimate(start, end, this.noFlyIndex, this.planner);
+			cacheScope.put(start, end, leg);
+		}
+		return leg;
 	}
 
 }
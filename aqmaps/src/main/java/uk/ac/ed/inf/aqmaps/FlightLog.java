@@ -0,0 +1,144 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.mapbox.geojson.Feature;
+
+// A binary flight log written by FlightLogWriter, mapped into memory so that any move can be read straight from the file
+// Only the small sensor table is decoded when the log is opened. The moves are read from their fixed-width records as they are asked for.
+public class FlightLog {
+
+	private final ByteBuffer buffer;
+	private final int moveCount;
+	private final double startLng;
+	private final double startLat;
+	private final Sensor[] sensors;
+	private final double[] sensorLngs;
+	private final double[] sensorLats;
+
+	public FlightLog(Path file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(mapped.capacity() < FlightLogWriter.HEADER_SIZE || mapped.getInt(0) != FlightLogWriter.MAGIC || mapped.getInt(4) != FlightLogWriter.VERSION) {
+				throw new IOException(file + " is not a flight log");
+			}
+			this.buffer = mapped;
+		}
+		this.moveCount = buffer.getInt(8);
+		var sensorCount = buffer.getInt(12);
+		this.startLng = buffer.getDouble(16);
+		this.startLat = buffer.getDouble(24);
+		var tableOffset = buffer.getLong(32);
+		if(moveCount < 0 || sensorCount < 0 || tableOffset != FlightLogWriter.HEADER_SIZE + (long) moveCount * FlightLogWriter.RECORD_SIZE || tableOffset > buffer.capacity()) {
+			throw new IOException(file + " is truncated or corrupt");
+		}
+
+		this.sensors = new Sensor[sensorCount];
+		this.sensorLngs = new double[sensorCount];
+		this.sensorLats = new double[sensorCount];
+		ByteBuffer table = buffer.duplicate();
+		table.position((int) tableOffset);
+		try {
+			for(int i = 0; i < sensorCount; i++) {
+				sensorLngs[i] = table.getDouble();
+				sensorLats[i] = table.getDouble();
+				var battery = table.getDouble();
+				var location = readString(table);
+				sensors[i] = new Sensor(location, battery, readString(table));
+			}
+		} catch (RuntimeException e) { // Reading past the end of the file, or a negative string length
+			throw new IOException(file + " has a truncated or corrupt sensor table");
+		}
+	}
+
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	public double getStartLng() {
+		return startLng;
+	}
+
+	public double getStartLat() {
+		return startLat;
+	}
+
+	public double getStartLng(int i) {
+		return buffer.getDouble(record(i));
+	}
+
+	public double getStartLat(int i) {
+		return buffer.getDouble(record(i) + 8);
+	}
+
+	public double getEndLng(int i) {
+		return buffer.getDouble(record(i) + 16);
+	}
+
+	public double getEndLat(int i) {
+		return buffer.getDouble(record(i) + 24);
+	}
+
+	public int getBearing(int i) {
+		return buffer.getInt(record(i) + 32);
+	}
+
+	// The index of the sensor read at the end of move i, or -1 if none was
+	public int getSensorIndex(int i) {
+		return buffer.getInt(record(i) + 36);
+	}
+
+	// The location of the sensor read at the end of move i, or "null" if none was, as in the flightpath text
+	public String getSensorName(int i) {
+		var index = getSensorIndex(i);
+		return (index == FlightLogWriter.NO_SENSOR) ? "null" : sensors[index].getLocation();
+	}
+
+	public int getSensorCount() {
+		return sensors.length;
+	}
+
+	public Sensor getSensor(int index) {
+		return sensors[index];
+	}
+
+	public Coords getSensorCoords(int index) {
+		return new Coords(sensorLngs[index], sensorLats[index]);
+	}
+
+	// Writes every move, giving exactly the text DayPlanner writes to the flightpath file
+	public void writeFlightPath(FlightPathWriter writer) throws IOException {
+		for(int i = 0; i < moveCount; i++) {
+			writer.writeMove(getStartLng(i), getStartLat(i), getBearing(i), getEndLng(i), getEndLat(i), getSensorName(i));
+		}
+	}
+
+	// Writes a marker for every sensor followed by the lineString of the path, giving exactly the geojson DayPlanner writes to the readings file
+	public void writeReadings(GeoJSONWriter writer) throws IOException {
+		GeoJSONHandler geo = new GeoJSONHandler(new Coords(startLng, startLat));
+		for(int i = 0; i < sensors.length; i++) {
+			Feature marker = geo.generateMarker(sensors[i], getSensorCoords(i));
+			marker.addStringProperty("text", Integer.toString(i + 1));
+			writer.writeFeature(marker);
+		}
+		writer.writePath(this);
+	}
+
+	private int record(int i) {
+		if(i < 0 || i >= moveCount) throw new IndexOutOfBoundsException("Move " + i + " out of bounds for " + moveCount + " moves");
+		return FlightLogWriter.HEADER_SIZE + i * FlightLogWriter.RECORD_SIZE;
+	}
+
+	private static String readString(ByteBuffer table) {
+		byte[] bytes = new byte[table.getShort()];
+		table.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
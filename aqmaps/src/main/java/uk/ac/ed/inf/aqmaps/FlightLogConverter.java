@@ -0,0 +1,60 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Converts binary flight logs back into the flightpath text and readings geojson that App writes, byte for byte
+// Usage: FlightLogConverter <flight log>... [--output=text|geojson|both]
+// Each flightlog-DD-MM-YYYY.aqfl is converted to flightpath-DD-MM-YYYY.txt and readings-DD-MM-YYYY.geojson beside it. Logs with any other name keep their name, with .txt and .geojson in place of their extension.
+public class FlightLogConverter {
+
+	private static final String PREFIX = "flightlog-";
+	private static final String EXTENSION = ".aqfl";
+
+	public static void main(String[] args) {
+		final String output = App.getOption(args, "output", "both");
+		if(!output.equals("text") && !output.equals("geojson") && !output.equals("both")) {
+			System.out.println("Error: Unknown output " + output);
+			System.exit(1);
+		}
+
+		var failures = 0;
+		for(String arg : args) {
+			if(arg.startsWith("--")) continue;
+			try {
+				convert(Paths.get(arg), output);
+			} catch (IOException e) {
+				System.out.println("Error: Unable to convert " + arg + " - " + e.getMessage());
+				failures++;
+			}
+		}
+		if(failures > 0) System.exit(1);
+	}
+
+	static void convert(Path file, String output) throws IOException {
+		FlightLog log = new FlightLog(file);
+		if(!output.equals("geojson")) {
+			try(FlightPathWriter writer = new FlightPathWriter(sibling(file, "flightpath-", ".txt"))) {
+				log.writeFlightPath(writer);
+			}
+		}
+		if(!output.equals("text")) {
+			try(GeoJSONWriter writer = new GeoJSONWriter(sibling(file, "readings-", ".geojson"))) {
+				log.writeReadings(writer);
+			}
+		}
+	}
+
+	// Names an output file after the log, in the same directory
+	private static Path sibling(Path file, String prefix, String extension) {
+		var name = file.getFileName().toString();
+		var dot = name.lastIndexOf('.');
+		var base = (dot > 0) ? name.substring(0, dot) : name;
+		if(name.startsWith(PREFIX) && name.endsWith(EXTENSION)) {
+			base = prefix + name.substring(PREFIX.length(), name.length() - EXTENSION.length());
+		}
+		return file.resolveSibling(base + extension);
+	}
+
+}
@@ -0,0 +1,122 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Streams a day's flight as a binary flight log, a compact alternative to the flightpath text and readings geojson which can be loaded without parsing
+// The layout, all big-endian, is:
+//   header  - magic "AQFL", version, move count, sensor count, start longitude and latitude, and the offset of the sensor table (HEADER_SIZE bytes)
+//   moves   - one RECORD_SIZE record per move: start longitude, start latitude, end longitude, end latitude, bearing, and the index of the sensor read or -1
+//   sensors - for each sensor in the order it was listed: longitude, latitude, battery, then its location and reading as UTF-8 strings prefixed by their length
+// The records are written through a buffer straight to the file's channel, and the header is filled in when the writer is closed. FlightLog reads the file back.
+public class FlightLogWriter implements Closeable {
+
+	static final int MAGIC = 0x4151464C; // "AQFL"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 40;
+	static final int RECORD_SIZE = 40;
+	static final int NO_SENSOR = -1;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final Coords start;
+	private final Sensor[] sensors;
+	private final List<Coords> sensorCoords;
+	private final Map<String, Integer> sensorIndex = new HashMap<String, Integer>();
+	private int moveCount = 0;
+
+	// The sensors and their coordinates are given in the same order, which is the order their markers are numbered in
+	public FlightLogWriter(Path file, Coords start, Sensor[] sensors, List<Coords> sensorCoords) throws IOException {
+		if(sensors.length != sensorCoords.size()) throw new IllegalArgumentException("Every sensor needs its coordinates");
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.start = start;
+		this.sensors = sensors;
+		this.sensorCoords = sensorCoords;
+		for(int i = sensors.length - 1; i >= 0; i--) { // Going backwards leaves the first sensor at each location in the map
+			sensorIndex.put(sensors[i].getLocation(), i);
+		}
+		channel.position(HEADER_SIZE);
+	}
+
+	// Writes every move of every flightpath, in order
+	public void writePaths(List<FlightPath> paths) throws IOException {
+		for(FlightPath path : paths) {
+			MoveList moves = path.getMoveList();
+			for(int i = 0; i < moves.size(); i++) {
+				writeMove(moves.getStartLng(i), moves.getStartLat(i), moves.getBearing(i), moves.getEndLng(i), moves.getEndLat(i), moves.getSensor(i));
+			}
+		}
+	}
+
+	// Moves labelled with anything other than one of the sensors' locations, such as "null", are recorded as reading no sensor
+	public void writeMove(double startLng, double startLat, int bearing, double endLng, double endLat, String sensor) throws IOException {
+		if(buffer.remaining() < RECORD_SIZE) flush();
+		buffer.putDouble(startLng);
+		buffer.putDouble(startLat);
+		buffer.putDouble(endLng);
+		buffer.putDouble(endLat);
+		buffer.putInt(bearing);
+		buffer.putInt(sensorIndex.getOrDefault(sensor, NO_SENSOR));
+		moveCount++;
+	}
+
+	// Appends the sensor table, then goes back to fill in the header
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			var tableOffset = channel.position();
+			for(int i = 0; i < sensors.length; i++) {
+				byte[] location = encode(sensors[i].getLocation());
+				byte[] reading = encode(sensors[i].getReading());
+				if(buffer.remaining() < 3 * Double.BYTES + 2 * Short.BYTES + location.length + reading.length) flush();
+				buffer.putDouble(sensorCoords.get(i).getLng());
+				buffer.putDouble(sensorCoords.get(i).getLat());
+				buffer.putDouble(sensors[i].getBattery());
+				buffer.putShort((short) location.length).put(location);
+				buffer.putShort((short) reading.length).put(reading);
+			}
+			flush();
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(moveCount);
+			buffer.putInt(sensors.length);
+			buffer.putDouble(start.getLng());
+			buffer.putDouble(start.getLat());
+			buffer.putLong(tableOffset);
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer, HEADER_SIZE - buffer.remaining());
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	// Strings are limited to what a short length can describe, which is far beyond any what3words address or reading
+	// A missing reading is written as the text "null", which is how the server sends one.
+	private static byte[] encode(String text) {
+		byte[] bytes = String.valueOf(text).getBytes(StandardCharsets.UTF_8);
+		if(bytes.length > Short.MAX_VALUE) throw new IllegalArgumentException("Sensor text is too long for a flight log");
+		return bytes;
+	}
+
+}
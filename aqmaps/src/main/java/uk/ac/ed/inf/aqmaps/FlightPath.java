@@ -1,108 +1,221 @@
 package uk.ac.ed.inf.aqmaps;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class FlightPath {
 
-	private static final double MOVE = 0.0003;
+	static final double MOVE = 0.0003;
+	static final double CLOSE_RANGE = 0.0002;
+	// The largest squared distance whose square root is still within CLOSE_RANGE, so comparing squared distances against it gives exactly the same answers as taking the root.
+	private static final double CLOSE_RANGE_SQUARED = squaredThreshold(CLOSE_RANGE);
+	// The longitude and latitude change of a single move at every bearing from MIN_BEARING to MAX_BEARING, in steps of 10 degrees.
+	// calculateNewAngle probes bearings outside 0 - 350 before cleaning them, so the table covers those too, each computed exactly as a move at that bearing always has been.
+	private static final int MIN_BEARING = -360;
+	private static final int MAX_BEARING = 720;
+	private static final double[] LNG_STEP = new double[(MAX_BEARING - MIN_BEARING) / 10 + 1];
+	private static final double[] LAT_STEP = new double[(MAX_BEARING - MIN_BEARING) / 10 + 1];
+	
+	static {
+		for(int i = 0; i < LNG_STEP.length; i++) {
+			var bearing = MIN_BEARING + 10 * i;
+			LNG_STEP[i] = MOVE * Math.cos(Math.toRadians(bearing));
+			LAT_STEP[i] = MOVE * Math.sin(Math.toRadians(bearing));
+		}
+	}
+	
+	// The original greedy planner, which heads straight for the target and turns in 10 degree steps around anything in its way
+	public static final LegPlanner GREEDY = new LegPlanner() {
+		@Override
+		public LegEstimate plan(Coords start, Coords end, NoFlyIndex noFly, String sensorName, MoveList moves) {
+			return calculateFlightPath(start, end, noFly, sensorName, moves);
+		}
+
+		@Override
+		public String getName() {
+			return "greedy";
+		}
+	};
+	
 	private final int moveCount;
-	private final List<Move> moveList;
+	private final MoveList moveList;
 	private final Coords startPos;
 	private final Coords endPos;
-	private final List<NoFlyZone> noFlyZones;
-	private final String sensorName;
 	
 	public FlightPath(Coords start, Coords end, List<NoFlyZone> noFly, String sensorName) {
+		this(start, end, new NoFlyIndex(noFly), sensorName);
+	}
+	
+	// Building a NoFlyIndex is far more expensive than a single path, so callers creating many paths should build one index and share it
+	public FlightPath(Coords start, Coords end, NoFlyIndex noFly, String sensorName) {
+		this(start, end, noFly, sensorName, GREEDY);
+	}
+	
+	// Plans the path using the given planner rather than the greedy one
+	public FlightPath(Coords start, Coords end, NoFlyIndex noFly, String sensorName, LegPlanner planner) {
+		this.startPos = start;
+		this.endPos = end;
+		this.moveList = new MoveList(start);
+		this.moveCount = planner.plan(start, end, noFly, sensorName, moveList).getMoveCount();
+		moveList.trimToSize();
+	}
+	
+	private FlightPath(Coords start, Coords end, MoveList moves) {
 		this.startPos = start;
 		this.endPos = end;
-		this.noFlyZones = noFly;
-		this.sensorName = sensorName;
-		this.moveList = calculateFlightPath();
-		this.moveCount = moveList.size();
+		this.moveList = moves;
+		this.moveCount = moves.size();
+	}
+	
+	// Returns a copy of this path moved so that it starts at the given point instead, without planning it again
+	// The moved path is checked move by move, and null is returned if it would cross a no-fly zone, leave the confinement area, or no longer finish within range of its target.
+	FlightPath translatedTo(Coords start, NoFlyIndex noFly) {
+		MoveList moves = moveList.translated(start.getLng(), start.getLat());
+		for(int i = 0; i < moves.size(); i++) {
+			if(noFly.intersects(moves.getStartLng(i), moves.getStartLat(i), moves.getEndLng(i), moves.getEndLat(i)) || leavesConfinementZone(moves.getEndLng(i), moves.getEndLat(i))) {
+				return null;
+			}
+		}
+		var last = moves.size() - 1;
+		if(!isClose(moves.getEndLng(last), moves.getEndLat(last), endPos.getLng(), endPos.getLat())) return null;
+		return new FlightPath(start, endPos, moves);
+	}
+	
+	// Simulates the path between two points without building its list of moves, returning only the move count and end position.
+	// This follows exactly the same steps as the constructor, so the estimate always matches the full flightPath.
+	public static LegEstimate estimate(Coords start, Coords end, NoFlyIndex noFly) {
+		return estimate(start, end, noFly, GREEDY);
+	}
+	
+	public static LegEstimate estimate(Coords start, Coords end, NoFlyIndex noFly, LegPlanner planner) {
+		return planner.plan(start, end, noFly, "null", null);
 	}
 
 	// This is the main function of the class. Using our given start and end positions, we move one step at a time towards the goal.
 	// This will loop until a path is found, and recalculate angles if it runs into a no-fly zone.
-	private List<Move> calculateFlightPath() {
-		Coords currPos = startPos;
-		List<Move> moves = new ArrayList<Move>();
+	// Moves are added to the given list as they are made. If the list is null, the moves are only counted, which is all the pathMatrix needs.
+	// The drone's position is kept as primitive doubles, so nothing is allocated while stepping unless a move is being recorded.
+	private static LegEstimate calculateFlightPath(Coords startPos, Coords endPos, NoFlyIndex noFly, String sensorName, MoveList moves) {
+		final double endLng = endPos.getLng();
+		final double endLat = endPos.getLat();
+		var currLng = startPos.getLng();
+		var currLat = startPos.getLat();
+		var moveCount = 0;
+		var tests = 0; // How many times a bearing was checked against the no-fly zones, for the metrics
+		var retries = 0; // How many of those checks were of alternatives to a blocked bearing
+		// The leg's corridor, which grows to cover every position the drone passes through
+		var minLng = currLng;
+		var minLat = currLat;
+		var maxLng = currLng;
+		var maxLat = currLat;
+		var previous = -1; // The bearing of the last move made, or -1 if no move has been made yet
 		
-		while(!isClose(currPos, endPos)) {
-			double optimalAngle = Math.toDegrees(getAngleBetween(currPos, endPos));
-			if(optimalAngle < 0) optimalAngle = optimalAngle + 360; // Ensures angle is positive
-			int roundedAngle = (int) (10 * (Math.round(optimalAngle/10))); // Rounds to the nearest multiple of 10
-			Coords newPos = getNewLocation(currPos, roundedAngle);
-			if(entersNoFlyZone(currPos, newPos) || leavesConfinementZone(newPos)) { // If we enter a no-fly zone or leave the drone confinement area...
-				var previous = -1;
-				// If a previous move exists, fetch it.
-				if(moves.size() > 0) previous = moves.get(moves.size()-1).getBearing();
+		while(!isClose(currLng, currLat, endLng, endLat)) {
+			int roundedAngle = getOptimalBearing(currLng, currLat, endLng, endLat);
+			tests++;
+			if(isBlocked(noFly, currLng, currLat, roundedAngle)) { // If we enter a no-fly zone or leave the drone confinement area...
 				// Calculate the optimal angle to avoid the obstacle
-				int newAngle = calculateNewAngle(currPos, roundedAngle, previous);
-				roundedAngle = newAngle;
-				newPos = getNewLocation(currPos, roundedAngle);
+				var turnInc = nextClearBearing(noFly, currLng, currLat, roundedAngle, 10);
+				var turnDec = nextClearBearing(noFly, currLng, currLat, roundedAngle, -10);
+				var tried = (turnInc - turnDec) / 10; // Every bearing from turnDec to turnInc, other than the blocked optimal one, has been checked
+				tests += tried;
+				retries += tried;
+				roundedAngle = calculateNewAngle(roundedAngle, turnInc, turnDec, previous);
 			}
+			var newLng = currLng + lngStep(roundedAngle);
+			var newLat = currLat + latStep(roundedAngle);
 			if(roundedAngle == 360) roundedAngle = 0;
-			var sensorClose = "null";
-			if(isClose(newPos, endPos)) sensorClose = sensorName;
-			moves.add(new Move(currPos, newPos, roundedAngle, sensorClose)); // Finally, add the move to our list
-			currPos = newPos;
+			if(moves != null) { // Finally, add the move to our list
+				var sensorClose = "null";
+				if(isClose(newLng, newLat, endLng, endLat)) sensorClose = sensorName;
+				moves.add(newLng, newLat, roundedAngle, sensorClose);
+			}
+			moveCount++;
+			previous = roundedAngle;
+			currLng = newLng;
+			currLat = newLat;
+			minLng = Math.min(minLng, currLng);
+			minLat = Math.min(minLat, currLat);
+			maxLng = Math.max(maxLng, currLng);
+			maxLat = Math.max(maxLat, currLat);
 		}
 		// Ensures we never return a flightpath of 0 length, we move in the optimal direction to ensure we remain as close as possible
-		if(moves.size() == 0) {
-			double optimalAngle = Math.toDegrees(getAngleBetween(currPos, endPos));
-			if(optimalAngle < 0) optimalAngle = optimalAngle + 360;
-			int roundedAngle = (int) (10 * (Math.round(optimalAngle/10)));
-			Coords newPos = getNewLocation(currPos, roundedAngle);
+		if(moveCount == 0) {
+			int roundedAngle = getOptimalBearing(currLng, currLat, endLng, endLat);
 
-			if(entersNoFlyZone(currPos, newPos) || leavesConfinementZone(newPos)) { // If we enter a no-fly zone or leave the drone confinement area...
+			tests++;
+			if(isBlocked(noFly, currLng, currLat, roundedAngle)) { // If we enter a no-fly zone or leave the drone confinement area...
 				// Calculate the optimal angle to avoid the obstacle
-				int newAngle = calculateNewAngle(currPos, roundedAngle, -1);
-				roundedAngle = newAngle;
+				var turnInc = nextClearBearing(noFly, currLng, currLat, roundedAngle, 10);
+				var turnDec = nextClearBearing(noFly, currLng, currLat, roundedAngle, -10);
+				var tried = (turnInc - turnDec) / 10;
+				tests += tried;
+				retries += tried;
+				roundedAngle = calculateNewAngle(roundedAngle, turnInc, turnDec, -1);
 				if(roundedAngle == 360) roundedAngle = 0;
-				newPos = getNewLocation(currPos, roundedAngle);
 			}
+			var newLng = currLng + lngStep(roundedAngle);
+			var newLat = currLat + latStep(roundedAngle);
 
-			if(!isClose(newPos, endPos)) { // If we are unfortunate and move out of range, perform the opposite move to return back to where we came.
-				moves.add(new Move(startPos, newPos, roundedAngle, "null"));
-				currPos = newPos;
+			if(!isClose(newLng, newLat, endLng, endLat)) { // If we are unfortunate and move out of range, perform the opposite move to return back to where we came.
 				int newAngle = roundedAngle + 180;
 				if(newAngle > 350) newAngle -= 360;
-				newPos = getNewLocation(currPos, newAngle);
-				moves.add(new Move(currPos, newPos, newAngle, sensorName));
+				var backLng = newLng + lngStep(newAngle);
+				var backLat = newLat + latStep(newAngle);
+				minLng = Math.min(minLng, Math.min(newLng, backLng));
+				minLat = Math.min(minLat, Math.min(newLat, backLat));
+				maxLng = Math.max(maxLng, Math.max(newLng, backLng));
+				maxLat = Math.max(maxLat, Math.max(newLat, backLat));
+				if(moves != null) {
+					moves.add(newLng, newLat, roundedAngle, "null");
+					moves.add(backLng, backLat, newAngle, sensorName);
+				}
+				moveCount += 2;
+				currLng = backLng;
+				currLat = backLat;
 			} else {
-				moves.add(new Move(startPos, newPos, roundedAngle, sensorName));
-				currPos = newPos;
+				if(moves != null) moves.add(newLng, newLat, roundedAngle, sensorName);
+				moveCount++;
+				currLng = newLng;
+				currLat = newLat;
+				minLng = Math.min(minLng, currLng);
+				minLat = Math.min(minLat, currLat);
+				maxLng = Math.max(maxLng, currLng);
+				maxLat = Math.max(maxLat, currLat);
 			}
 		}
 		
-		return moves;
+		Metrics.addWork(tests, retries, moveCount);
+		return new LegEstimate(moveCount, new Coords(currLng, currLat), minLng, minLat, maxLng, maxLat);
 	}
 
 	// Helper function that checks whether the current position of the drone is beyond any of it's limits
-	private boolean leavesConfinementZone(Coords newPos) {
-		if(newPos.getLng() > -3.184319 || newPos.getLng() < -3.192473 || newPos.getLat() > 55.946233 || newPos.getLat() < 55.942617) {
+	static boolean leavesConfinementZone(double lng, double lat) {
+		if(lng > -3.184319 || lng < -3.192473 || lat > 55.946233 || lat < 55.942617) {
 			return true;
 		} else {
 			return false;
 		}
 	}
+	
+	// Checks whether moving from the given position at the given bearing would enter a no-fly zone or leave the drone confinement area
+	static boolean isBlocked(NoFlyIndex noFly, double lng, double lat, int bearing) {
+		var newLng = lng + lngStep(bearing);
+		var newLat = lat + latStep(bearing);
+		return noFly.intersects(lng, lat, newLng, newLat) || leavesConfinementZone(newLng, newLat);
+	}
 
-	// Finds the best angle to travel at whilst avoiding no-fly zones and remaining in the confinement area
-	// This function can be called with previous = some angle, or = -1. If it is -1, this is the first move on the path.
-	private int calculateNewAngle(Coords currPos, int optimalAngle, int previous) {
-		
-		var turnInc = optimalAngle + 10;
-		var turnDec = optimalAngle - 10;
-		
-		// Find the closest angle to the optimal one by turning in a positive direction, and a negative direction
-		while(entersNoFlyZone(currPos, getNewLocation(currPos, turnInc)) || leavesConfinementZone(getNewLocation(currPos, turnInc))) {
-			turnInc += 10;
-		}
-		
-		while(entersNoFlyZone(currPos, getNewLocation(currPos, turnDec)) || leavesConfinementZone(getNewLocation(currPos, turnDec))) {
-			turnDec -= 10;
+	// Finds the closest angle to the blocked optimal one by turning in one direction, positive or negative, until the drone can move
+	private static int nextClearBearing(NoFlyIndex noFly, double lng, double lat, int optimalAngle, int turn) {
+		var bearing = optimalAngle + turn;
+		while(isBlocked(noFly, lng, lat, bearing)) {
+			bearing += turn;
 		}
+		return bearing;
+	}
+
+	// Chooses the best angle to travel at whilst avoiding no-fly zones and remaining in the confinement area, from the closest clear angles either side of the optimal one
+	// This function can be called with previous = some angle, or = -1. If it is -1, this is the first move on the path.
+	private static int calculateNewAngle(int optimalAngle, int turnInc, int turnDec, int previous) {
 		
 		// Clean the outputs to remain within 0 - 350.
 		if(turnInc > 350) turnInc = turnInc - 360;
@@ -124,55 +237,53 @@ public class FlightPath {
 	}
 
 	// Helper function to find the distance between any two angles
-	private int angleDistance(int angle1, int angle2) {
+	private static int angleDistance(int angle1, int angle2) {
 		var dist = (int) ((angle1 - angle2) % 360.0);
         if (dist < -180) dist += 360;
         if (dist >= 180) dist -= 360;
 		return Math.abs(dist);
 	}
 
-	// Utilises NoFlyZone.intersects, and checks for every zone that our current line segment doesn't enter it.
-	private boolean entersNoFlyZone(Coords currPos, Coords newPos) {
-		for(NoFlyZone zone : noFlyZones) {
-			if(zone.intersects(currPos.getLng(), currPos.getLat(), newPos.getLng(), newPos.getLat())) return true;
-		}
-		return false;
+	// Uses atan2 to find the exact angle towards the target, then rounds it to the nearest multiple of 10 between 0 and 360
+	private static int getOptimalBearing(double lng, double lat, double endLng, double endLat) {
+		double optimalAngle = Math.toDegrees(Math.atan2(endLat - lat, endLng - lng));
+		if(optimalAngle < 0) optimalAngle = optimalAngle + 360; // Ensures angle is positive
+		return (int) (10 * (Math.round(optimalAngle/10))); // Rounds to the nearest multiple of 10
 	}
 
-	// Performs the actual movement, using trigonometry to find the position of the drone after it moves at a given angle.
-	private Coords getNewLocation(Coords currPos, int roundedAngle) {
-		var lngIncrement = MOVE * Math.cos(Math.toRadians(roundedAngle));
-		var latIncrement = MOVE * Math.sin(Math.toRadians(roundedAngle));
-		return new Coords(currPos.getLng() + lngIncrement, currPos.getLat() + latIncrement);
+	// Perform the actual movement, looking up how far the drone travels at a given bearing in the precomputed tables.
+	// Bearings are always multiples of 10, but any outside the tables fall back to the trigonometry directly.
+	static double lngStep(int bearing) {
+		if(bearing >= MIN_BEARING && bearing <= MAX_BEARING) return LNG_STEP[(bearing - MIN_BEARING) / 10];
+		return MOVE * Math.cos(Math.toRadians(bearing));
 	}
-
-	// Helper function which uses atan2 to calculate the exact angle between two points
-	private double getAngleBetween(Coords c1, Coords c2) {
-		return Math.atan2((c2.getLat() - c1.getLat()), (c2.getLng() - c1.getLng()));
+	
+	static double latStep(int bearing) {
+		if(bearing >= MIN_BEARING && bearing <= MAX_BEARING) return LAT_STEP[(bearing - MIN_BEARING) / 10];
+		return MOVE * Math.sin(Math.toRadians(bearing));
 	}
 
 	// Helper function that checks whether we are within range of a sensor. Used above to break from the loop when we reach our target.
-	private boolean isClose(Coords c1, Coords c2) {
-		if(getDistBetween(c1, c2) <= 0.0002) {
-			return true;
-		} else {
-			return false;
-		}
+	static boolean isClose(double lng, double lat, double endLng, double endLat) {
+		var xdiff = endLng - lng;
+		var ydiff = endLat - lat;
+		return xdiff * xdiff + ydiff * ydiff <= CLOSE_RANGE_SQUARED;
 	}
 	
-	// Simple Euclidean distance function
-	private double getDistBetween(Coords c1, Coords c2) {
-		var xdiff = Math.pow(c2.getLng() - c1.getLng(), 2);
-		var ydiff = Math.pow(c2.getLat() - c1.getLat(), 2);
-		double dist = Math.sqrt(xdiff + ydiff);
-		return dist;
+	// Finds the largest squared distance whose square root does not exceed the given range
+	// Square roots are correctly rounded and never decrease, so a squared distance is within this threshold exactly when its root is within the range.
+	private static double squaredThreshold(double range) {
+		var threshold = range * range;
+		while(Math.sqrt(threshold) > range) threshold = Math.nextDown(threshold);
+		while(Math.sqrt(Math.nextUp(threshold)) <= range) threshold = Math.nextUp(threshold);
+		return threshold;
 	}
 
 	public int getMoveCount() {
 		return this.moveCount;
 	}
 
-	public List<Move> getMoveList() {
+	public MoveList getMoveList() {
 		return this.moveList;
 	}
 	
@@ -0,0 +1,120 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+
+// Streams the flightpath text output, one line per move, through a buffered writer
+// Each line is assembled in a reusable character buffer, and numbers are formatted directly rather than through String.format.
+// The text is identical to formatting each line with "%d,%f,%f,%d,%f,%f,%s\n", always using '.' as the decimal separator.
+public class FlightPathWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final long SCALE = 1000000; // %f prints six decimal places
+	// Values beyond this are left to String.format. Scaled by a million they stay well below 2^53, so the scaled value still has a fraction to round.
+	static final double MAX_FAST_VALUE = 1e9;
+	// If the digits after the sixth decimal place are this close to exactly half way, the fast path cannot be sure which way %f rounds
+	// The margin grows with the rounding error of scaling the value, which is a few ulps of the scaled value.
+	private static final double TIE_MARGIN = 1e-6;
+	private static final double TIE_ULPS = 4;
+
+	private final Writer writer;
+	private final char[] line = new char[256];
+	private int moveNo = 1;
+
+	public FlightPathWriter(Path file) throws IOException {
+		this(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE));
+	}
+
+	public FlightPathWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	// Writes every move of every flightpath, in order
+	public void writePaths(List<FlightPath> paths) throws IOException {
+		for(FlightPath path : paths) {
+			MoveList moves = path.getMoveList();
+			for(int i = 0; i < moves.size(); i++) {
+				writeMove(moves.getStartLng(i), moves.getStartLat(i), moves.getBearing(i), moves.getEndLng(i), moves.getEndLat(i), moves.getSensor(i));
+			}
+		}
+	}
+
+	// Writes a single move, numbering it after the moves already written
+	public void writeMove(Move move) throws IOException {
+		writeMove(move.getStart().getLng(), move.getStart().getLat(), move.getBearing(), move.getEnd().getLng(), move.getEnd().getLat(), move.getSensor());
+	}
+
+	public void writeMove(double startLng, double startLat, int bearing, double endLng, double endLat, String sensor) throws IOException {
+		var pos = appendLong(moveNo++, line, 0);
+		line[pos++] = ',';
+		pos = appendFixed(startLng, line, pos);
+		line[pos++] = ',';
+		pos = appendFixed(startLat, line, pos);
+		line[pos++] = ',';
+		pos = appendLong(bearing, line, pos);
+		line[pos++] = ',';
+		pos = appendFixed(endLng, line, pos);
+		line[pos++] = ',';
+		pos = appendFixed(endLat, line, pos);
+		line[pos++] = ',';
+		writer.write(line, 0, pos);
+		writer.write(sensor);
+		writer.write('\n');
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+
+	// Appends a value with exactly six decimal places, rounding half up as %f does, and returns the new end of the buffer
+	// %f rounds the shortest decimal representation of the value, so the result is only computed here when it is clearly on one side of a tie.
+	static int appendFixed(double value, char[] buffer, int pos) {
+		var magnitude = Math.abs(value);
+		var scaled = magnitude * SCALE;
+		var whole = (long) scaled;
+		var fraction = scaled - whole;
+		if(!(magnitude < MAX_FAST_VALUE) || Math.abs(fraction - 0.5) < TIE_MARGIN + TIE_ULPS * Math.ulp(scaled)) {
+			String text = String.format(Locale.ROOT, "%f", value);
+			text.getChars(0, text.length(), buffer, pos);
+			return pos + text.length();
+		}
+
+		var rounded = (fraction >= 0.5) ? whole + 1 : whole;
+		if(value < 0 || (value == 0 && 1 / value < 0)) buffer[pos++] = '-'; // %f keeps the sign of negative values which round to zero
+		pos = appendLong(rounded / SCALE, buffer, pos);
+		buffer[pos++] = '.';
+		var decimals = rounded % SCALE;
+		for(int i = 5; i >= 0; i--) {
+			buffer[pos + i] = (char) ('0' + decimals % 10);
+			decimals /= 10;
+		}
+		return pos + 6;
+	}
+
+	// Appends a whole number in decimal, returning the new end of the buffer
+	static int appendLong(long value, char[] buffer, int pos) {
+		if(value < 0) {
+			buffer[pos++] = '-';
+			value = -value;
+		}
+		var digits = 1;
+		for(long rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		for(int i = digits - 1; i >= 0; i--) {
+			buffer[pos + i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return pos + digits;
+	}
+
+}
@@ -1,7 +1,5 @@
 package uk.ac.ed.inf.aqmaps;
 
-import java.io.FileWriter;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -36,44 +34,15 @@ public class GeoJSONHandler {
     	return pointFeature;
 	}
 
-	// Generates the final geojson output of the program, writing to file
-	public void outputJSON(List<Feature> featureList, String day, String month, String year) {
-        FeatureCollection featureColl = FeatureCollection.fromFeatures(featureList);
-        var featureJSON = featureColl.toJson();
-        // We write the geoJSON to the file using FileWriter
-        try {
-            FileWriter writer = new FileWriter("readings-"+day+"-"+month+"-"+year+".geojson");
-            writer.write(featureJSON);
-            writer.close();
-            System.out.println("Successfully wrote geoJSON.");
-          } catch (IOException e) {
-            System.out.println("An error occurred in geoJSON writing.");
-            e.printStackTrace();
-          }
-	}
-	
-	// Given the geojson data from the webserver, parse into valid noFlyZone objects
-	public List<NoFlyZone> parseNoFlyZones(String data) {
-		List<NoFlyZone> noFlyZones = new ArrayList<NoFlyZone>();
-		FeatureCollection coll = FeatureCollection.fromJson(data);
-		List<Feature> features = coll.features();
-		for(Feature f : features) { // For each feature, we find its polygon boundary and use that to generate a noFlyZone
-			Polygon poly = (Polygon) f.geometry();
-			var name = f.getStringProperty("name");
-			NoFlyZone noFlyZone = new NoFlyZone(poly, name);
-			noFlyZones.add(noFlyZone);
-		}
-		return noFlyZones;
-	}
-	
 	// Creates a lineString path given the calculated list of flightpaths
 	// Each move is considered to be one point on the lineString.
 	public Feature generatePath(List<FlightPath> pathList) {
 		List<Point> pointList = new ArrayList<Point>();
 		pointList.add(Point.fromLngLat(START_POINT.getLng(), START_POINT.getLat())); // Add our start point so that the first move generates a line
 		for(FlightPath path: pathList) {
-			for(Move m : path.getMoveList()) { // Iterate through all moves and add the coords of the drone
-				pointList.add(Point.fromLngLat(m.getEnd().getLng(), m.getEnd().getLat()));
+			MoveList moves = path.getMoveList();
+			for(int i = 0; i < moves.size(); i++) { // Iterate through all moves and add the coords of the drone
+				pointList.add(Point.fromLngLat(moves.getEndLng(i), moves.getEndLat(i)));
 			}
 		}
 		LineString path = LineString.fromLngLats(pointList);
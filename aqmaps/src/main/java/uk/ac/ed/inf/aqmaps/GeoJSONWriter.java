@@ -0,0 +1,110 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+import com.mapbox.geojson.*;
+import com.mapbox.geojson.utils.GeoJsonUtils;
+
+// Streams a GeoJSON FeatureCollection, writing each feature as soon as it is given rather than building the whole document in memory
+// The flight path's LineString is written point by point straight from the moves, so no list of Points is ever built for it.
+// The output is identical to serialising the same features with FeatureCollection.toJson.
+public class GeoJSONWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Writer writer;
+	private final JsonWriter json;
+	private boolean betweenFeatures = false; // False while a feature is part written, or after a write failed partway, when the document cannot be finished
+
+	public GeoJSONWriter(Path file) throws IOException {
+		this(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE));
+	}
+
+	public GeoJSONWriter(Writer writer) throws IOException {
+		this.writer = writer;
+		this.json = new JsonWriter(writer);
+		json.setHtmlSafe(true); // Matches the escaping of the Gson instance used by toJson
+		json.beginObject();
+		json.name("type").value("FeatureCollection");
+		json.name("features").beginArray();
+		betweenFeatures = true;
+	}
+
+	// Writes a feature that has already been built, such as a sensor marker
+	public void writeFeature(Feature feature) throws IOException {
+		betweenFeatures = false;
+		json.jsonValue(feature.toJson());
+		betweenFeatures = true;
+	}
+
+	// Writes the flight path as a LineString feature, starting at the start point and passing through the end of every move
+	public void writePath(Coords start, List<FlightPath> paths) throws IOException {
+		beginPath(start.getLng(), start.getLat());
+		for(FlightPath path : paths) {
+			MoveList moves = path.getMoveList();
+			for(int i = 0; i < moves.size(); i++) {
+				writePosition(moves.getEndLng(i), moves.getEndLat(i));
+			}
+		}
+		endPath();
+	}
+
+	// Writes the flight path recorded in a binary flight log, exactly as it was written from the flightpaths themselves
+	public void writePath(FlightLog log) throws IOException {
+		beginPath(log.getStartLng(), log.getStartLat());
+		for(int i = 0; i < log.getMoveCount(); i++) {
+			writePosition(log.getEndLng(i), log.getEndLat(i));
+		}
+		endPath();
+	}
+
+	// Finishes the FeatureCollection and closes the underlying writer
+	// If a write failed partway the document is left unfinished, rather than throwing from here and hiding the original failure, and the writer is closed either way.
+	@Override
+	public void close() throws IOException {
+		try {
+			if(betweenFeatures) {
+				json.endArray();
+				json.endObject();
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private void beginPath(double startLng, double startLat) throws IOException {
+		betweenFeatures = false;
+		json.beginObject();
+		json.name("type").value("Feature");
+		json.name("geometry").beginObject();
+		json.name("type").value("LineString");
+		json.name("coordinates").beginArray();
+		writePosition(startLng, startLat);
+	}
+
+	private void endPath() throws IOException {
+		json.endArray();
+		json.endObject();
+		json.name("properties").beginObject().endObject();
+		json.endObject();
+		betweenFeatures = true;
+	}
+
+	// Coordinates are trimmed to seven decimal places, exactly as the mapbox serialiser does
+	private void writePosition(double lng, double lat) throws IOException {
+		json.beginArray();
+		json.value(GeoJsonUtils.trim(lng));
+		json.value(GeoJsonUtils.trim(lat));
+		json.endArray();
+	}
+
+}
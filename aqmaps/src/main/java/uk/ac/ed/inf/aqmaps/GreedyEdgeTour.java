@@ -0,0 +1,150 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Arrays;
+
+// Builds a hamiltonian circuit with the sorted edges (greedy edge) algorithm, for any number of nodes
+// Every edge is sorted by length once, then accepted in order whenever both its nodes have fewer than two links and it would not close a loop early.
+// Loops are detected by tracking the fragments of the circuit with a union-find structure, and node degrees are kept in a primitive array.
+// The links chosen are the same as repeatedly picking the shortest valid edge, with ties going to the lowest numbered nodes.
+public class GreedyEdgeTour {
+
+	private static final int MAX_COUNTING_COST = 1 << 20; // Above this, sorting edges by counting would need too large a table
+
+	// Takes a matrix of move counts between every pair of nodes, and returns the order in which to visit them
+	// The order starts and ends at node 0, so contains one more entry than there are nodes.
+	public static int[] build(int[][] cost) {
+		final int n = cost.length;
+		if(n < 2) {
+			return new int[] {0};
+		}
+
+		int[] degree = new int[n];
+		int[] links = new int[2 * n]; // The two nodes linked to node i are links[2i] and links[2i+1]
+		int[] fragment = new int[n]; // The union-find parent of each node
+		int[] fragmentSize = new int[n];
+		for(int i = 0; i < n; i++) {
+			fragment[i] = i;
+			fragmentSize[i] = 1;
+		}
+
+		var linkCount = 0;
+		for(long edge : sortEdges(cost)) {
+			if(linkCount == n - 1) break; // Only the edge closing the circuit remains
+			int from = (int) (edge / n);
+			int to = (int) (edge % n);
+
+			if(degree[from] == 2 || degree[to] == 2) continue;
+			int fromRoot = find(fragment, from);
+			int toRoot = find(fragment, to);
+			if(fromRoot == toRoot) continue; // Both nodes are the ends of the same fragment, so linking them would complete a loop early
+
+			if(fragmentSize[fromRoot] < fragmentSize[toRoot]) {
+				fragment[fromRoot] = toRoot;
+				fragmentSize[toRoot] += fragmentSize[fromRoot];
+			} else {
+				fragment[toRoot] = fromRoot;
+				fragmentSize[fromRoot] += fragmentSize[toRoot];
+			}
+			addLink(from, to, cost, degree, links);
+			linkCount++;
+		}
+
+		// All nodes now form a single path, so we close the circuit by linking its two ends
+		int first = -1;
+		int second = -1;
+		for(int i = 0; i < n; i++) {
+			if(degree[i] < 2) {
+				if(first == -1) first = i;
+				else second = i;
+			}
+		}
+		if(second == -1) second = first; // Only possible with two nodes, which are linked twice
+		if(cost[second][first] < cost[first][second]) {
+			addLink(second, first, cost, degree, links);
+		} else {
+			addLink(first, second, cost, degree, links);
+		}
+
+		// Form the order by walking the circuit from node 0, heading to its lowest numbered neighbour first
+		int[] order = new int[n + 1];
+		var prev = 0;
+		var curr = Math.min(links[0], links[1]);
+		for(int k = 1; k < n; k++) {
+			order[k] = curr;
+			var next = (links[2 * curr] != prev) ? links[2 * curr] : links[2 * curr + 1];
+			prev = curr;
+			curr = next;
+		}
+		return order;
+	}
+
+	// Returns every edge as from * n + to, sorted by its move count, then by from, then by to.
+	// Each pair of nodes appears once, in whichever direction comes first in that ordering, since choosing either direction adds the same link.
+	private static long[] sortEdges(int[][] cost) {
+		final int n = cost.length;
+		var edgeCount = 0;
+		var maxCost = 0;
+		for(int i = 0; i < n; i++) {
+			for(int j = 0; j < n; j++) {
+				if(i != j && comesFirst(cost, i, j)) {
+					edgeCount++;
+					maxCost = Math.max(maxCost, cost[i][j]);
+				}
+			}
+		}
+
+		long[] sorted = new long[edgeCount];
+		if(maxCost < MAX_COUNTING_COST) {
+			// Move counts are small integers, so a counting sort orders the edges in linear time.
+			// Edges are visited in order of from then to, and the sort is stable, so ties stay in that order.
+			int[] bucketStart = new int[maxCost + 2];
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j < n; j++) {
+					if(i != j && comesFirst(cost, i, j)) bucketStart[Math.max(0, cost[i][j]) + 1]++;
+				}
+			}
+			for(int c = 0; c <= maxCost; c++) {
+				bucketStart[c + 1] += bucketStart[c];
+			}
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j < n; j++) {
+					if(i != j && comesFirst(cost, i, j)) sorted[bucketStart[Math.max(0, cost[i][j])]++] = (long) i * n + j;
+				}
+			}
+		} else {
+			// Otherwise the move count is packed above the edge so that a plain sort of longs gives the same ordering
+			var k = 0;
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j < n; j++) {
+					if(i != j && comesFirst(cost, i, j)) sorted[k++] = ((long) Math.max(0, cost[i][j]) << 32) | ((long) i * n + j);
+				}
+			}
+			Arrays.sort(sorted);
+			for(int e = 0; e < sorted.length; e++) {
+				sorted[e] &= 0xffffffffL;
+			}
+		}
+		return sorted;
+	}
+
+	// Whether the edge from i to j comes before the edge from j to i
+	private static boolean comesFirst(int[][] cost, int i, int j) {
+		return cost[i][j] < cost[j][i] || (cost[i][j] == cost[j][i] && i < j);
+	}
+
+	private static void addLink(int from, int to, int[][] cost, int[] degree, int[] links) {
+		if(Log.isDebug()) Log.debug("Creating link between " + from + " and " + to + " of length " + cost[from][to]);
+		links[2 * from + degree[from]++] = to;
+		links[2 * to + degree[to]++] = from;
+	}
+
+	// Finds the root of a node's fragment, halving the path to it as it goes
+	private static int find(int[] fragment, int node) {
+		while(fragment[node] != node) {
+			fragment[node] = fragment[fragment[node]];
+			node = fragment[node];
+		}
+		return node;
+	}
+
+}
@@ -0,0 +1,358 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// A persistent cache of the legs estimated for the pathMatrix, so that days which visit the same sites with the same no-fly zones can skip simulating them
+// The cache is stored in a binary file of fixed size entries, sorted by key:
+//   header - magic number, format version, entry count
+//   entry  - key (context, quantised start lng, start lat, end lng, end lat), exact start and end, move count, end position, corridor, time last used
+// The context is a hash of the no-fly zones' geometry, the planner and the drone's constants, so a leg is only reused when it would be planned in exactly the same way.
+// Coordinates in the key are quantised to 1e-7 degrees (about a centimetre) and stored as ints, keeping the key short. The exact points are stored as well,
+// and a leg is only returned if they match exactly, so a cached leg is always the one a fresh simulation would give. Two points within a centimetre share a slot.
+// The file is memory-mapped and looked up by binary search in place, so opening the cache reads nothing. Legs estimated during the run are held in memory until save merges them in.
+// Only absolute reads are made from the mapped file, so any number of threads can share one cache, and keep using it while it is saved.
+// Saving unmaps the old file before replacing it, as Windows will not replace a file which is still mapped. Lookups wait only while the new file is swapped in.
+public class LegCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 500000;
+
+	private static final int MAGIC = 0x41514C43; // "AQLC"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+	private static final int KEY_SIZE = 8 + 4 * 4;
+	private static final int ENTRY_SIZE = KEY_SIZE + 4 * 8 + 4 + 2 * 8 + 4 * 8 + 8;
+	private static final double SCALE = 1e7;
+
+	private final Path file;
+	private final int maxEntries;
+	private volatile Mapping mapping; // Replaced as a whole by save, so a lookup never sees the buffer of one file with the size of another
+	private final ReadWriteLock swapLock = new ReentrantReadWriteLock(); // Held for writing while the old file is unmapped, so no lookup reads from it
+	private final Map<Key, Entry> added = new ConcurrentHashMap<Key, Entry>();
+	private final Set<Key> used = ConcurrentHashMap.newKeySet(); // Entries of the file looked up during this run, whose time last used is updated by save
+
+	public LegCache(Path file) {
+		this(file, DEFAULT_MAX_ENTRIES);
+	}
+
+	public LegCache(Path file, int maxEntries) {
+		this.file = file;
+		this.maxEntries = maxEntries;
+		this.mapping = map();
+	}
+
+	// Returns the scope in which to look up legs planned with the given zones and planner, or null if the planner cannot be cached
+	public Scope scope(List<NoFlyZone> zones, LegPlanner planner) {
+		String name = planner.getName();
+		if(name == null) return null;
+
+		var hash = mix(0xcbf29ce484222325L, VERSION);
+		for(byte b : name.getBytes(StandardCharsets.UTF_8)) {
+			hash = mix(hash, b);
+		}
+		hash = mix(hash, Double.doubleToLongBits(FlightPath.MOVE));
+		hash = mix(hash, Double.doubleToLongBits(FlightPath.CLOSE_RANGE));
+		hash = mix(hash, zones.size());
+		for(NoFlyZone zone : zones) {
+			hash = mix(hash, zone.getPointCount());
+			for(int i = 0; i < zone.getPointCount(); i++) {
+				hash = mix(hash, Double.doubleToLongBits(zone.getLng(i)));
+				hash = mix(hash, Double.doubleToLongBits(zone.getLat(i)));
+			}
+		}
+		return new Scope(hash);
+	}
+
+	// The legs planned with one set of no-fly zones and one planner
+	public class Scope {
+		private final long context;
+
+		private Scope(long context) {
+			this.context = context;
+		}
+
+		// Returns the cached estimate of the leg between two points, or null if it has not been cached or cannot be
+		public LegEstimate get(Coords start, Coords end) {
+			Key key = key(context, start, end);
+			Entry entry = added.get(key);
+			if(entry == null) {
+				entry = find(key);
+				if(entry != null) used.add(key);
+			}
+			LegEstimate leg = (entry != null && entry.joins(start, end)) ? entry.leg : null;
+			Metrics.addLegCacheLookup(leg != null);
+			return leg;
+		}
+
+		public void put(Coords start, Coords end, LegEstimate leg) {
+			Key key = key(context, start, end);
+			added.put(key, new Entry(key, start, end, leg, 0));
+		}
+	}
+
+	public int size() {
+		return mapping.count + added.size();
+	}
+
+	// Writes the cache back to its file if anything has changed, keeping only the most recently used entries, then maps the new file in place of the old
+	// The file is written to a temporary file first and then moved into place, so a crash can never leave it half written.
+	public synchronized void save() throws IOException {
+		if(added.isEmpty() && used.isEmpty()) return;
+
+		var now = System.currentTimeMillis();
+		Mapping old = mapping;
+		// Only what is seen here is cleared afterwards, so legs put by other threads while the file is written wait for the next save
+		List<Entry> saved = new ArrayList<Entry>(added.values());
+		Set<Key> seen = new HashSet<Key>(used);
+		Map<Key, Entry> entries = new HashMap<Key, Entry>();
+		for(int i = 0; i < old.count; i++) {
+			Entry entry = readEntry(old.buffer, HEADER_SIZE + i * ENTRY_SIZE);
+			if(seen.contains(entry.key)) entry.lastUsed = now;
+			entries.put(entry.key, entry);
+		}
+		for(Entry entry : saved) {
+			entry.lastUsed = now;
+			entries.put(entry.key, entry);
+		}
+
+		List<Entry> kept = new ArrayList<Entry>(entries.values());
+		if(kept.size() > maxEntries) {
+			kept.sort((a, b) -> Long.compare(b.lastUsed, a.lastUsed));
+			kept = new ArrayList<Entry>(kept.subList(0, maxEntries));
+		}
+		kept.sort((a, b) -> a.key.compareTo(b.key));
+
+		Path parent = file.toAbsolutePath().getParent();
+		if(parent != null) Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			writeEntries(temp, kept);
+			swapLock.writeLock().lock();
+			try {
+				mapping = Mapping.EMPTY;
+				unmap(old.buffer);
+				Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				mapping = map(); // The old file again if the move failed
+				swapLock.writeLock().unlock();
+			}
+		} finally {
+			Files.deleteIfExists(temp); // Only left behind if the write or the move failed
+		}
+		for(Entry entry : saved) {
+			added.remove(entry.key, entry);
+		}
+		used.removeAll(seen);
+	}
+
+	private static void writeEntries(Path temp, List<Entry> kept) throws IOException {
+		try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) kept.size() * ENTRY_SIZE);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(kept.size());
+			for(Entry entry : kept) {
+				buffer.putLong(entry.key.context);
+				buffer.putInt(entry.key.startLng);
+				buffer.putInt(entry.key.startLat);
+				buffer.putInt(entry.key.endLng);
+				buffer.putInt(entry.key.endLat);
+				buffer.putDouble(entry.start.getLng());
+				buffer.putDouble(entry.start.getLat());
+				buffer.putDouble(entry.end.getLng());
+				buffer.putDouble(entry.end.getLat());
+				buffer.putInt(entry.leg.getMoveCount());
+				buffer.putDouble(entry.leg.getEndPos().getLng());
+				buffer.putDouble(entry.leg.getEndPos().getLat());
+				buffer.putDouble(entry.leg.getMinLng());
+				buffer.putDouble(entry.leg.getMinLat());
+				buffer.putDouble(entry.leg.getMaxLng());
+				buffer.putDouble(entry.leg.getMaxLat());
+				buffer.putLong(entry.lastUsed);
+			}
+			buffer.force();
+		}
+	}
+
+	// Maps the cache file into memory, checking only its header and size
+	private Mapping map() {
+		if(!Files.isRegularFile(file)) return Mapping.EMPTY;
+
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+					|| buffer.capacity() != HEADER_SIZE + (long) buffer.getInt(8) * ENTRY_SIZE) {
+				System.out.println("Ignoring leg cache " + file + " as it is not in the expected format.");
+				return Mapping.EMPTY;
+			}
+			return new Mapping(buffer, buffer.getInt(8));
+		} catch (IOException e) {
+			System.out.println("Ignoring leg cache " + file + " as it could not be read.");
+			return Mapping.EMPTY;
+		}
+	}
+
+	// Releases a mapped buffer straight away, rather than whenever it is garbage collected
+	// The JDK has no public way to do this, so sun.misc.Unsafe.invokeCleaner is called by reflection. If that is not possible the buffer is left to the
+	// garbage collector, and on Windows the save then fails to replace the file, which only costs the next run some simulation.
+	private static void unmap(MappedByteBuffer buffer) {
+		if(buffer == null) return;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			Log.debug("Unable to unmap the old leg cache: " + e);
+		}
+	}
+
+	// Binary searches the mapped file for a key
+	private Entry find(Key key) {
+		swapLock.readLock().lock();
+		try {
+			Mapping current = mapping;
+			var low = 0;
+			var high = current.count - 1;
+			while(low <= high) {
+				var mid = (low + high) >>> 1;
+				var offset = HEADER_SIZE + mid * ENTRY_SIZE;
+				var comparison = key.compareTo(current.buffer, offset);
+				if(comparison == 0) return readEntry(current.buffer, offset);
+				if(comparison < 0) high = mid - 1;
+				else low = mid + 1;
+			}
+			return null;
+		} finally {
+			swapLock.readLock().unlock();
+		}
+	}
+
+	private static Key readKey(MappedByteBuffer buffer, int offset) {
+		return new Key(buffer.getLong(offset), buffer.getInt(offset + 8), buffer.getInt(offset + 12), buffer.getInt(offset + 16), buffer.getInt(offset + 20));
+	}
+
+	private static Entry readEntry(MappedByteBuffer buffer, int offset) {
+		var points = offset + KEY_SIZE;
+		Coords start = new Coords(buffer.getDouble(points), buffer.getDouble(points + 8));
+		Coords end = new Coords(buffer.getDouble(points + 16), buffer.getDouble(points + 24));
+		var value = points + 32;
+		LegEstimate leg = new LegEstimate(buffer.getInt(value), new Coords(buffer.getDouble(value + 4), buffer.getDouble(value + 12)),
+				buffer.getDouble(value + 20), buffer.getDouble(value + 28), buffer.getDouble(value + 36), buffer.getDouble(value + 44));
+		return new Entry(readKey(buffer, offset), start, end, leg, buffer.getLong(value + 52));
+	}
+
+	private static Key key(long context, Coords start, Coords end) {
+		return new Key(context, quantise(start.getLng()), quantise(start.getLat()), quantise(end.getLng()), quantise(end.getLat()));
+	}
+
+	// Returns a coordinate in units of 1e-7 degrees, which always fits in an int as no coordinate is beyond 180 degrees
+	private static int quantise(double value) {
+		return (int) Math.round(value * SCALE);
+	}
+
+	private static long mix(long hash, long value) {
+		return (hash ^ value) * 0x100000001b3L; // FNV-1a, a whole long at a time
+	}
+
+	private static class Key implements Comparable<Key> {
+		private final long context;
+		private final int startLng;
+		private final int startLat;
+		private final int endLng;
+		private final int endLat;
+
+		Key(long context, int startLng, int startLat, int endLng, int endLat) {
+			this.context = context;
+			this.startLng = startLng;
+			this.startLat = startLat;
+			this.endLng = endLng;
+			this.endLat = endLat;
+		}
+
+		@Override
+		public int compareTo(Key other) {
+			if(context != other.context) return Long.compare(context, other.context);
+			if(startLng != other.startLng) return Integer.compare(startLng, other.startLng);
+			if(startLat != other.startLat) return Integer.compare(startLat, other.startLat);
+			if(endLng != other.endLng) return Integer.compare(endLng, other.endLng);
+			return Integer.compare(endLat, other.endLat);
+		}
+
+		// Compares this key with the one stored at the given offset of the file, without reading it into a Key
+		int compareTo(MappedByteBuffer buffer, int offset) {
+			var storedContext = buffer.getLong(offset);
+			if(context != storedContext) return Long.compare(context, storedContext);
+			var stored = buffer.getInt(offset + 8);
+			if(startLng != stored) return Integer.compare(startLng, stored);
+			stored = buffer.getInt(offset + 12);
+			if(startLat != stored) return Integer.compare(startLat, stored);
+			stored = buffer.getInt(offset + 16);
+			if(endLng != stored) return Integer.compare(endLng, stored);
+			return Integer.compare(endLat, buffer.getInt(offset + 20));
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof Key)) return false;
+			Key other = (Key) o;
+			return context == other.context && startLng == other.startLng && startLat == other.startLat && endLng == other.endLng && endLat == other.endLat;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(context) * 31 * 31 * 31 * 31 + startLng * 31 * 31 * 31 + startLat * 31 * 31 + endLng * 31 + endLat;
+		}
+	}
+
+	private static class Mapping {
+		private static final Mapping EMPTY = new Mapping(null, 0);
+
+		private final MappedByteBuffer buffer;
+		private final int count;
+
+		Mapping(MappedByteBuffer buffer, int count) {
+			this.buffer = buffer;
+			this.count = count;
+		}
+	}
+
+	private static class Entry {
+		private final Key key;
+		private final Coords start;
+		private final Coords end;
+		private final LegEstimate leg;
+		private long lastUsed;
+
+		Entry(Key key, Coords start, Coords end, LegEstimate leg, long lastUsed) {
+			this.key = key;
+			this.start = start;
+			this.end = end;
+			this.leg = leg;
+			this.lastUsed = lastUsed;
+		}
+
+		// Whether this is the leg between exactly these points, rather than others sharing its slot
+		boolean joins(Coords from, Coords to) {
+			return start.getLng() == from.getLng() && start.getLat() == from.getLat() && end.getLng() == to.getLng() && end.getLat() == to.getLat();
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package uk.ac.ed.inf.aqmaps;
+
+// The result of simulating a flightPath without recording its moves
+// Holds only what the pathMatrix needs: how many moves the leg takes, and where the drone finishes.
+// It also keeps the leg's corridor - the bounding box of every position the drone passed through - so a changed no-fly zone only invalidates the legs it could have affected.
+public class LegEstimate {
+
+	private final int moveCount;
+	private final Coords endPos;
+	private final double minLng;
+	private final double minLat;
+	private final double maxLng;
+	private final double maxLat;
+
+	// A leg whose corridor is not known is given an unbounded one, so it is assumed to be affected by every zone
+	public LegEstimate(int moveCount, Coords endPos) {
+		this(moveCount, endPos, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	public LegEstimate(int moveCount, Coords endPos, double minLng, double minLat, double maxLng, double maxLat) {
+		this.moveCount = moveCount;
+		this.endPos = endPos;
+		this.minLng = minLng;
+		this.minLat = minLat;
+		this.maxLng = maxLng;
+		this.maxLat = maxLat;
+	}
+
+	public int getMoveCount() {
+		return moveCount;
+	}
+
+	public Coords getEndPos() {
+		return endPos;
+	}
+
+	public double getMinLng() {
+		return minLng;
+	}
+
+	public double getMinLat() {
+		return minLat;
+	}
+
+	public double getMaxLng() {
+		return maxLng;
+	}
+
+	public double getMaxLat() {
+		return maxLat;
+	}
+
+	// Whether a no-fly zone could have changed how this leg was planned
+	// Every move the planner checked started from a position in the corridor and is one move long, so a zone further than that away was never tested against.
+	public boolean mayBeAffectedBy(NoFlyZone zone) {
+		return zone.overlaps(minLng - FlightPath.MOVE, minLat - FlightPath.MOVE, maxLng + FlightPath.MOVE, maxLat + FlightPath.MOVE);
+	}
+
+}
@@ -0,0 +1,16 @@
+package uk.ac.ed.inf.aqmaps;
+
+// A strategy for planning the moves of a single flightPath between two points
+// Implementations add each move they make to the given list, or only count them if it is null, and return the move count and the position the drone finishes at.
+// Every path must contain at least one move, and its last move must end within range of the target, labelled with the given sensor name.
+public interface LegPlanner {
+
+	LegEstimate plan(Coords start, Coords end, NoFlyIndex noFly, String sensorName, MoveList moves);
+
+	// A name for the planner and its settings, which keeps the legs it plans apart from those of other planners in a LegCache
+	// Planners without a name are never cached.
+	default String getName() {
+		return null;
+	}
+
+}
@@ -0,0 +1,23 @@
+package uk.ac.ed.inf.aqmaps;
+
+// A minimal switch for progress output that is too detailed to print on every run, such as each link and leg as it is added
+// Callers check isDebug before building a message, so disabled output costs nothing in the loops that produce it.
+public class Log {
+
+	public enum Level { INFO, DEBUG }
+
+	private static volatile Level level = Level.INFO;
+
+	public static void setLevel(Level newLevel) {
+		level = newLevel;
+	}
+
+	public static boolean isDebug() {
+		return level == Level.DEBUG;
+	}
+
+	public static void debug(String message) {
+		if(isDebug()) System.out.println(message);
+	}
+
+}
@@ -0,0 +1,217 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.stream.JsonWriter;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+
+// Records where a run spends its time and how much work the planner does, for the metrics report and for Java Flight Recorder
+// Every phase is timed with a JFR event, so a recording (java -XX:StartFlightRecording ...) shows each phase on the timeline of the thread that ran it.
+// The hot-path counters are tallied in local variables and added here once per leg, so counting adds nothing to the planners' inner loops.
+// Phase times are summed across threads and may overlap - the day's data is parsed while it is still being fetched, for example.
+// Each phase also records the bytes allocated by the thread that ran it, where the JVM can count them. Work the phase hands to other threads, such as a parallel path matrix, is not included.
+public class Metrics {
+
+	public enum Phase {
+		FETCH("fetch"), PARSE("parse"), MATRIX("matrix"), ORDERING("ordering"), REBUILD("rebuild"), OUTPUT("output");
+
+		private final String label;
+
+		Phase(String label) {
+			this.label = label;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	private static final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+	private static final LongAdder[] phaseCounts = new LongAdder[Phase.values().length];
+	private static final LongAdder[] phaseAllocatedBytes = new LongAdder[Phase.values().length];
+	private static final com.sun.management.ThreadMXBean allocationCounter = createAllocationCounter();
+	private static final LongAdder intersectionTests = new LongAdder();
+	private static final LongAdder bearingRetries = new LongAdder();
+	private static final LongAdder movesSimulated = new LongAdder();
+	private static final LongAdder legCacheHits = new LongAdder();
+	private static final LongAdder legCacheMisses = new LongAdder();
+
+	static {
+		for(int i = 0; i < phaseNanos.length; i++) {
+			phaseNanos[i] = new LongAdder();
+			phaseCounts[i] = new LongAdder();
+			phaseAllocatedBytes[i] = new LongAdder();
+		}
+		// While a recording is running, the counters are sampled into it every second
+		FlightRecorder.addPeriodicEvent(CountersEvent.class, () -> {
+			CountersEvent event = new CountersEvent();
+			event.intersectionTests = intersectionTests.sum();
+			event.bearingRetries = bearingRetries.sum();
+			event.movesSimulated = movesSimulated.sum();
+			event.commit();
+		});
+	}
+
+	// Starts timing a phase, which ends when the returned timer is closed
+	public static Timer time(Phase phase) {
+		return new Timer(phase);
+	}
+
+	// Adds the work done by one leg, or one search for a way around an obstacle
+	// An intersection test is a single check of a move against the no-fly zones and confinement area, and a bearing retry is an alternative bearing tried because the preferred one was blocked.
+	static void addWork(long tests, long retries, long moves) {
+		intersectionTests.add(tests);
+		bearingRetries.add(retries);
+		movesSimulated.add(moves);
+	}
+
+	// Counts a look up of a leg in the LegCache
+	static void addLegCacheLookup(boolean hit) {
+		(hit ? legCacheHits : legCacheMisses).increment();
+	}
+
+	public static long getIntersectionTests() {
+		return intersectionTests.sum();
+	}
+
+	public static long getBearingRetries() {
+		return bearingRetries.sum();
+	}
+
+	public static long getMovesSimulated() {
+		return movesSimulated.sum();
+	}
+
+	public static long getLegCacheHits() {
+		return legCacheHits.sum();
+	}
+
+	public static long getLegCacheMisses() {
+		return legCacheMisses.sum();
+	}
+
+	public static long getPhaseNanos(Phase phase) {
+		return phaseNanos[phase.ordinal()].sum();
+	}
+
+	public static long getPhaseCount(Phase phase) {
+		return phaseCounts[phase.ordinal()].sum();
+	}
+
+	// The bytes allocated by the threads which ran the phase, or 0 if the JVM cannot count them
+	public static long getPhaseAllocatedBytes(Phase phase) {
+		return phaseAllocatedBytes[phase.ordinal()].sum();
+	}
+
+	// The bytes allocated so far by the current thread, or 0 if the JVM cannot count them
+	public static long getThreadAllocatedBytes() {
+		if(allocationCounter == null) return 0;
+		return Math.max(0, allocationCounter.getThreadAllocatedBytes(Thread.currentThread().getId()));
+	}
+
+	private static com.sun.management.ThreadMXBean createAllocationCounter() {
+		var threads = ManagementFactory.getThreadMXBean();
+		if(!(threads instanceof com.sun.management.ThreadMXBean)) return null;
+		var counter = (com.sun.management.ThreadMXBean) threads;
+		if(!counter.isThreadAllocatedMemorySupported()) return null;
+		if(!counter.isThreadAllocatedMemoryEnabled()) counter.setThreadAllocatedMemoryEnabled(true);
+		return counter;
+	}
+
+	// Writes the total time, allocation and number of runs of every phase, and every counter, as a JSON object
+	public static void writeReport(Path file) throws IOException {
+		try(BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writeReport(out);
+		}
+	}
+
+	// Writes the same report to a writer, which is left open
+	public static void writeReport(Writer out) throws IOException {
+		JsonWriter json = new JsonWriter(out);
+		json.setIndent("  ");
+		json.beginObject();
+		json.name("phases").beginObject();
+		for(Phase phase : Phase.values()) {
+			json.name(phase.getLabel()).beginObject();
+			json.name("count").value(phaseCounts[phase.ordinal()].sum());
+			json.name("millis").value(phaseNanos[phase.ordinal()].sum() / 1e6);
+			json.name("allocatedBytes").value(phaseAllocatedBytes[phase.ordinal()].sum());
+			json.endObject();
+		}
+		json.endObject();
+		json.name("counters").beginObject();
+		json.name("intersectionTests").value(getIntersectionTests());
+		json.name("bearingRetries").value(getBearingRetries());
+		json.name("movesSimulated").value(getMovesSimulated());
+		json.name("legCacheHits").value(getLegCacheHits());
+		json.name("legCacheMisses").value(getLegCacheMisses());
+		json.endObject();
+		json.endObject();
+		json.flush();
+	}
+
+	// Times one run of a phase, for use with try-with-resources
+	// The timer is never referenced inside the try, so methods which use one are marked @SuppressWarnings("try") to keep -Xlint quiet.
+	public static class Timer implements AutoCloseable {
+		private final Phase phase;
+		private final PhaseEvent event = new PhaseEvent();
+		private final long start;
+		private final long startAllocated;
+
+		private Timer(Phase phase) {
+			this.phase = phase;
+			event.phase = phase.getLabel();
+			event.begin();
+			this.startAllocated = getThreadAllocatedBytes();
+			this.start = System.nanoTime();
+		}
+
+		@Override
+		public void close() {
+			phaseNanos[phase.ordinal()].add(System.nanoTime() - start);
+			phaseAllocatedBytes[phase.ordinal()].add(getThreadAllocatedBytes() - startAllocated);
+			phaseCounts[phase.ordinal()].increment();
+			event.commit();
+		}
+	}
+
+	@Name("uk.ac.ed.inf.aqmaps.Phase")
+	@Label("Planning Phase")
+	@Category("AQMaps")
+	@Description("One run of a phase of planning a day")
+	static class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+	}
+
+	@Name("uk.ac.ed.inf.aqmaps.Counters")
+	@Label("Planner Counters")
+	@Category("AQMaps")
+	@Description("Running totals of the work done by the leg planners")
+	@Period("1 s")
+	static class CountersEvent extends Event {
+		@Label("Intersection Tests")
+		long intersectionTests;
+
+		@Label("Bearing Retries")
+		long bearingRetries;
+
+		@Label("Moves Simulated")
+		long movesSimulated;
+	}
+
+}
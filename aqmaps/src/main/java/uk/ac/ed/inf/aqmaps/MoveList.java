@@ -0,0 +1,150 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Objects;
+
+// The moves of a flightPath, packed into primitive arrays rather than held as Move objects
+// Each move starts where the previous one ended, so the path is stored as its waypoints: the start point followed by the end of every move, as longitude and latitude pairs.
+// Bearings are always multiples of 10 degrees, so each is kept as a single byte holding the bearing divided by 10, and sensor names are kept once in a small table which each move indexes.
+// Output should read the moves through the index accessors, such as getEndLng(i), which allocate nothing. get(i) builds a Move on demand, so the list can still be used wherever a List<Move> is expected.
+public class MoveList extends AbstractList<Move> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private double[] points; // lng, lat of the start point, then of the end of each move
+	private byte[] bearings; // bearing / 10
+	private int[] sensors; // index into names
+	private String[] names = new String[2];
+	private int nameCount = 0;
+	private int size = 0;
+
+	public MoveList(Coords start) {
+		this(start.getLng(), start.getLat());
+	}
+
+	public MoveList(double startLng, double startLat) {
+		this.points = new double[2 * (INITIAL_CAPACITY + 1)];
+		this.bearings = new byte[INITIAL_CAPACITY];
+		this.sensors = new int[INITIAL_CAPACITY];
+		points[0] = startLng;
+		points[1] = startLat;
+	}
+
+	// Appends a move from the end of the last one (or the start point) to the given position
+	public void add(double endLng, double endLat, int bearing, String sensor) {
+		if(bearing % 10 != 0 || bearing / 10 != (byte) (bearing / 10)) { // The planners occasionally leave a bearing of 360 as it is, so it is kept exactly
+			throw new IllegalArgumentException("Bearing must be a multiple of 10 within a byte once divided by 10, but was " + bearing);
+		}
+		if(size == bearings.length) grow();
+		points[2 * size + 2] = endLng;
+		points[2 * size + 3] = endLat;
+		bearings[size] = (byte) (bearing / 10);
+		sensors[size] = indexOf(sensor);
+		size++;
+		modCount++;
+	}
+
+	// Moves can only be appended in sequence, each starting exactly where the last one ended
+	@Override
+	public boolean add(Move move) {
+		if(move.getStart().getLng() != getEndLng(size - 1) || move.getStart().getLat() != getEndLat(size - 1)) {
+			throw new IllegalArgumentException("A move must start where the previous move ended");
+		}
+		add(move.getEnd().getLng(), move.getEnd().getLat(), move.getBearing(), move.getSensor());
+		return true;
+	}
+
+	// Builds a Move holding a copy of the i'th move
+	@Override
+	public Move get(int i) {
+		checkIndex(i);
+		return new Move(new Coords(getStartLng(i), getStartLat(i)), new Coords(getEndLng(i), getEndLat(i)), getBearing(i), getSensor(i));
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	// The start of move i is the end of move i-1, and the end of move -1 is the start point
+	public double getStartLng(int i) {
+		return points[2 * i];
+	}
+
+	public double getStartLat(int i) {
+		return points[2 * i + 1];
+	}
+
+	public double getEndLng(int i) {
+		return points[2 * i + 2];
+	}
+
+	public double getEndLat(int i) {
+		return points[2 * i + 3];
+	}
+
+	public int getBearing(int i) {
+		return bearings[i] * 10;
+	}
+
+	public String getSensor(int i) {
+		return names[sensors[i]];
+	}
+
+	// The position reached by the last move, or the start point if there are no moves
+	public Coords getFinalPos() {
+		return new Coords(getEndLng(size - 1), getEndLat(size - 1));
+	}
+
+	// Copies the list with every point moved by the same amount so that it starts at the given point, keeping each move's bearing and sensor
+	// The start point is set exactly, rather than moved, so that the copy joins on to whatever ended there.
+	MoveList translated(double startLng, double startLat) {
+		var dLng = startLng - points[0];
+		var dLat = startLat - points[1];
+		MoveList copy = new MoveList(startLng, startLat);
+		copy.points = Arrays.copyOf(points, 2 * (size + 1));
+		for(int i = 2; i < copy.points.length; i += 2) {
+			copy.points[i] += dLng;
+			copy.points[i+1] += dLat;
+		}
+		copy.points[0] = startLng;
+		copy.points[1] = startLat;
+		copy.bearings = Arrays.copyOf(bearings, size);
+		copy.sensors = Arrays.copyOf(sensors, size);
+		copy.names = Arrays.copyOf(names, nameCount);
+		copy.nameCount = nameCount;
+		copy.size = size;
+		return copy;
+	}
+
+	// Releases the spare capacity left over from growing, once the path is complete
+	public void trimToSize() {
+		points = Arrays.copyOf(points, 2 * (size + 1));
+		bearings = Arrays.copyOf(bearings, size);
+		sensors = Arrays.copyOf(sensors, size);
+		names = Arrays.copyOf(names, nameCount);
+	}
+
+	// A path only ever names one sensor besides "null", so a linear search of the table is enough
+	private int indexOf(String sensor) {
+		for(int i = 0; i < nameCount; i++) {
+			if(Objects.equals(names[i], sensor)) return i;
+		}
+		if(nameCount == names.length) names = Arrays.copyOf(names, Math.max(2, 2 * nameCount));
+		names[nameCount] = sensor;
+		return nameCount++;
+	}
+
+	private void grow() {
+		var capacity = Math.max(INITIAL_CAPACITY, 2 * bearings.length);
+		points = Arrays.copyOf(points, 2 * (capacity + 1));
+		bearings = Arrays.copyOf(bearings, capacity);
+		sensors = Arrays.copyOf(sensors, capacity);
+	}
+
+	private void checkIndex(int i) {
+		if(i < 0 || i >= size) throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+	}
+
+}
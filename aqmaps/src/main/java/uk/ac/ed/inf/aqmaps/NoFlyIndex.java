@@ -0,0 +1,150 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.awt.geom.Line2D;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+// A spatial index over the edges of every noFlyZone, used to check drone moves against nearby edges only
+// Each edge is stored in every cell of a uniform grid that its bounding box overlaps. A move segment is then tested only against the edges in the cells its own bounding box overlaps.
+// The results are identical to calling NoFlyZone.intersects on every zone, as every edge that could intersect the segment is always among those tested.
+public class NoFlyIndex {
+
+	private static final double MIN_CELL_SIZE = 0.0005; // Slightly larger than one move, so that a move segment usually falls in at most four cells
+	private static final int MAX_CELLS_PER_AXIS = 1024;
+	private static final double EPSILON = 1e-9; // Widens query boxes so that edges only touching a segment's bounding box are still tested
+	
+	private final int edgeCount;
+	private final double[] edgeX1;
+	private final double[] edgeY1;
+	private final double[] edgeX2;
+	private final double[] edgeY2;
+	
+	private final double minX;
+	private final double minY;
+	private final double maxX;
+	private final double maxY;
+	private final double cellSize;
+	private final int columns;
+	private final int rows;
+	
+	// The edges of cell c are cellEdges[cellStart[c]] up to (but excluding) cellEdges[cellStart[c+1]]
+	private final int[] cellStart;
+	private final int[] cellEdges;
+	
+	public NoFlyIndex(List<NoFlyZone> noFlyZones) {
+		var count = 0;
+		for(NoFlyZone zone : noFlyZones) {
+			count += zone.getEdgeCount();
+		}
+		
+		this.edgeCount = count;
+		this.edgeX1 = new double[count];
+		this.edgeY1 = new double[count];
+		this.edgeX2 = new double[count];
+		this.edgeY2 = new double[count];
+		
+		// Flatten every zone's edges into primitive arrays, tracking the bounds of all of them
+		var lowX = Double.POSITIVE_INFINITY;
+		var lowY = Double.POSITIVE_INFINITY;
+		var highX = Double.NEGATIVE_INFINITY;
+		var highY = Double.NEGATIVE_INFINITY;
+		var edge = 0;
+		for(NoFlyZone zone : noFlyZones) {
+			for(int i = 0; i < zone.getPointCount()-1; i++) {
+				edgeX1[edge] = zone.getLng(i);
+				edgeY1[edge] = zone.getLat(i);
+				edgeX2[edge] = zone.getLng(i+1);
+				edgeY2[edge] = zone.getLat(i+1);
+				lowX = Math.min(lowX, Math.min(edgeX1[edge], edgeX2[edge]));
+				lowY = Math.min(lowY, Math.min(edgeY1[edge], edgeY2[edge]));
+				highX = Math.max(highX, Math.max(edgeX1[edge], edgeX2[edge]));
+				highY = Math.max(highY, Math.max(edgeY1[edge], edgeY2[edge]));
+				edge++;
+			}
+		}
+		
+		if(count == 0) { // With no edges, every query can be rejected straight away
+			lowX = lowY = 0;
+			highX = highY = -1;
+		}
+		
+		this.minX = lowX;
+		this.minY = lowY;
+		this.maxX = highX;
+		this.maxY = highY;
+		this.cellSize = Math.max(MIN_CELL_SIZE, Math.max(highX - lowX, highY - lowY) / MAX_CELLS_PER_AXIS);
+		this.columns = Math.max(1, (int) Math.ceil((highX - lowX) / cellSize) + 1);
+		this.rows = Math.max(1, (int) Math.ceil((highY - lowY) / cellSize) + 1);
+		
+		// Build the grid in two passes - first count the edges in each cell, then fill them in
+		this.cellStart = new int[columns * rows + 1];
+		for(int e = 0; e < count; e++) {
+			forEachCell(e, c -> cellStart[c+1]++);
+		}
+		for(int c = 0; c < columns * rows; c++) {
+			cellStart[c+1] += cellStart[c];
+		}
+		this.cellEdges = new int[cellStart[columns * rows]];
+		int[] filled = new int[columns * rows];
+		for(int e = 0; e < count; e++) {
+			final int currEdge = e;
+			forEachCell(e, c -> cellEdges[cellStart[c] + filled[c]++] = currEdge);
+		}
+	}
+	
+	// Checks whether the line segment between two points intersects the edge of any noFlyZone
+	public boolean intersects(double x1, double y1, double x2, double y2) {
+		var lowX = Math.min(x1, x2) - EPSILON;
+		var lowY = Math.min(y1, y2) - EPSILON;
+		var highX = Math.max(x1, x2) + EPSILON;
+		var highY = Math.max(y1, y2) + EPSILON;
+		
+		// Segments entirely outside the bounds of every zone can be rejected without looking at the grid
+		if(highX < minX || lowX > maxX || highY < minY || lowY > maxY) {
+			return false;
+		}
+		
+		var firstColumn = column(lowX);
+		var lastColumn = column(highX);
+		var firstRow = row(lowY);
+		var lastRow = row(highY);
+		
+		for(int r = firstRow; r <= lastRow; r++) {
+			for(int c = firstColumn; c <= lastColumn; c++) {
+				var cell = r * columns + c;
+				for(int k = cellStart[cell]; k < cellStart[cell+1]; k++) {
+					var e = cellEdges[k];
+					if(Line2D.linesIntersect(x1, y1, x2, y2, edgeX1[e], edgeY1[e], edgeX2[e], edgeY2[e])) return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+	
+	// Calls the given action with every grid cell that the bounding box of an edge overlaps
+	private void forEachCell(int e, IntConsumer action) {
+		var firstColumn = column(Math.min(edgeX1[e], edgeX2[e]));
+		var lastColumn = column(Math.max(edgeX1[e], edgeX2[e]));
+		var firstRow = row(Math.min(edgeY1[e], edgeY2[e]));
+		var lastRow = row(Math.max(edgeY1[e], edgeY2[e]));
+		for(int r = firstRow; r <= lastRow; r++) {
+			for(int c = firstColumn; c <= lastColumn; c++) {
+				action.accept(r * columns + c);
+			}
+		}
+	}
+	
+	// Helper functions that find the grid column or row containing a coordinate, clamped to the grid
+	private int column(double x) {
+		return Math.max(0, Math.min(columns - 1, (int) ((x - minX) / cellSize)));
+	}
+	
+	private int row(double y) {
+		return Math.max(0, Math.min(rows - 1, (int) ((y - minY) / cellSize)));
+	}
+	
+}
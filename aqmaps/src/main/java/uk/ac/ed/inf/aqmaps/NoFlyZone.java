@@ -8,46 +8,102 @@ import com.mapbox.geojson.*;
 
 public class NoFlyZone {
 	
-	private List<Coords> pointList;
+	// The polygon's outer ring as longitude and latitude arrays, so the edges can be tested without touching any objects
+	private final double[] lngs;
+	private final double[] lats;
 	private final String name;
+	// The zone's bounding box, letting intersects reject segments that are nowhere near it
+	private double minLng = Double.POSITIVE_INFINITY;
+	private double minLat = Double.POSITIVE_INFINITY;
+	private double maxLng = Double.NEGATIVE_INFINITY;
+	private double maxLat = Double.NEGATIVE_INFINITY;
 
 	public NoFlyZone(Polygon poly, String name) {
+		this(outerLngs(poly.coordinates()), outerLats(poly.coordinates()), name);
+	}
+	
+	// Builds a zone straight from its outer ring, as read by ServerDataReader. The ring is closed, so its last point repeats the first.
+	public NoFlyZone(double[] lngs, double[] lats, String name) {
+		if(lngs.length != lats.length) throw new IllegalArgumentException("Every point of a no-fly zone needs both a longitude and a latitude");
+		this.lngs = lngs;
+		this.lats = lats;
 		this.name = name;
-		List<List<Point>> coords = poly.coordinates();
-		this.pointList = convertCoords(coords);
 		
+		for(int i = 0; i < lngs.length; i++) {
+			minLng = Math.min(minLng, lngs[i]);
+			minLat = Math.min(minLat, lats[i]);
+			maxLng = Math.max(maxLng, lngs[i]);
+			maxLat = Math.max(maxLat, lats[i]);
+		}
 	}
 	
-	// Converts from the geojson polygon to a list of Coords
-	// We feed in the List<List<Point>> given by the polygon's coordinates, and convert each to a Coords object
-	private List<Coords> convertCoords(List<List<Point>> points) {
-		
+	// Only the outer ring of the geojson polygon is used
+	private static double[] outerLngs(List<List<Point>> points) {
 		var outerList = points.get(0);
-		List<Coords> coordsList = new ArrayList<Coords>();
-		
-		for(int i = 0; i < outerList.size(); i++) {
-			coordsList.add(new Coords(outerList.get(i).longitude(), outerList.get(i).latitude()));
+		double[] lngs = new double[outerList.size()];
+		for(int i = 0; i < lngs.length; i++) {
+			lngs[i] = outerList.get(i).longitude();
 		}
-		
-		return coordsList;
-		
+		return lngs;
+	}
+	
+	private static double[] outerLats(List<List<Point>> points) {
+		var outerList = points.get(0);
+		double[] lats = new double[outerList.size()];
+		for(int i = 0; i < lats.length; i++) {
+			lats[i] = outerList.get(i).latitude();
+		}
+		return lats;
 	}
 	
 	// Checks whether a given line segment intersects the noFlyZone's boundaries
 	public boolean intersects(double x1, double y1, double x2, double y2) {
-		boolean doesIntersect = false;
+		// If the segment's bounding box is clear of the zone's, no edge can intersect it. A small margin keeps edges that only touch the box in consideration.
+		if(Math.max(x1, x2) < minLng - 1e-9 || Math.min(x1, x2) > maxLng + 1e-9 || Math.max(y1, y2) < minLat - 1e-9 || Math.min(y1, y2) > maxLat + 1e-9) {
+			return false;
+		}
+		
 		// We go through each point in the polygon, taking the line defined by it and the point after it, then checking whether it intersects with our move
 		// Line2D's intersect method is used for this calculation
-		for(int i = 0; i < pointList.size()-1; i++) {
-			if(!doesIntersect) {
-				doesIntersect = Line2D.linesIntersect(x1, y1, x2, y2, pointList.get(i).getLng(), pointList.get(i).getLat(), pointList.get(i+1).getLng(), pointList.get(i+1).getLat());
-			}		
+		for(int i = 0; i < lngs.length-1; i++) {
+			if(Line2D.linesIntersect(x1, y1, x2, y2, lngs[i], lats[i], lngs[i+1], lats[i+1])) return true;
 		}
-		return doesIntersect;
+		return false;
+	}
+	
+	// Checks whether the zone's bounding box overlaps the given box, with the same margin as intersects
+	public boolean overlaps(double boxMinLng, double boxMinLat, double boxMaxLng, double boxMaxLat) {
+		return boxMaxLng >= minLng - 1e-9 && boxMinLng <= maxLng + 1e-9 && boxMaxLat >= minLat - 1e-9 && boxMinLat <= maxLat + 1e-9;
 	}
 	
 	public String getName() {
 		return name;
 	}
 	
+	// Builds a list of the ring's points. getLng and getLat read them without allocating.
+	public List<Coords> getPointList() {
+		List<Coords> pointList = new ArrayList<Coords>(lngs.length);
+		for(int i = 0; i < lngs.length; i++) {
+			pointList.add(new Coords(lngs[i], lats[i]));
+		}
+		return pointList;
+	}
+	
+	public int getPointCount() {
+		return lngs.length;
+	}
+	
+	public double getLng(int i) {
+		return lngs[i];
+	}
+	
+	public double getLat(int i) {
+		return lats[i];
+	}
+	
+	// The polygon is closed, so its last point repeats the first and there is one fewer edge than points
+	public int getEdgeCount() {
+		return Math.max(0, lngs.length-1);
+	}
+	
 }
@@ -0,0 +1,224 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Plans days on request over a local HTTP endpoint, so that each request is served by a warm JVM rather than a fresh launch of App
+// The server connection, parsed no-fly zones and their index, word cache and leg cache are created once and shared by every request.
+// Requests are handled on a fixed pool of workers, and the caches are saved every minute and when the service stops.
+// Usage: PlanningService <latitude> <longitude> <seed> <port> [--name=value ...]
+// where port is the web server's port, as for App, and the service itself listens on --listen (default 8080). App's other options are accepted too.
+// Endpoints:
+//   GET /plan?date=2020-01-01[&lat=...&lng=...] - plans the day, optionally from another start point, returning
+//       {"date": ..., "moves": ..., "flightpath": "<the flightpath text>", "readings": <the GeoJSON FeatureCollection>}
+//       or status 422 with the move count if no path fits within DayPlanner.MAX_MOVES
+//   GET /metrics - the metrics report, as written by --metrics
+//   GET /health  - "ok" once the service is running
+public class PlanningService {
+
+	public static final int DEFAULT_LISTEN_PORT = 8080;
+	private static final long SAVE_INTERVAL_SECONDS = 60;
+
+	static {
+		// As with StandInServer, Nagle's algorithm would otherwise hold back every response body for a delayed ACK
+		if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+	}
+
+	private final ServerHandler server;
+	private final WordCache wordCache;
+	private final LegCache legCache;
+	private final DayPlanner dayPlanner;
+	private final HttpServer http;
+	private final ExecutorService workers;
+	private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor();
+
+	public PlanningService(String[] args) throws IOException {
+		final double startLat = Double.parseDouble(args[0]);
+		final double startLng = Double.parseDouble(args[1]);
+		final int port = Integer.parseInt(args[3]);
+		final int listen = Integer.parseInt(App.getOption(args, "listen", Integer.toString(DEFAULT_LISTEN_PORT)));
+		final int workerCount = Integer.parseInt(App.getOption(args, "workers", Integer.toString(Runtime.getRuntime().availableProcessors())));
+		App.setLogLevel(App.getOption(args, "log", "info"));
+
+		this.server = App.createServer(args, port);
+		this.wordCache = App.getWordCache(App.getOption(args, "word-cache", "none"));
+		server.setWordCache(wordCache);
+		this.legCache = App.getLegCache(App.getOption(args, "leg-cache", "none"));
+		Coords startPoint = new Coords(startLng, startLat);
+		CompletableFuture<List<NoFlyZone>> noFlyZones = server.getNoFlyZonesAsync();
+		// Days are already planned in parallel, so each builds its path matrix on a single thread unless told otherwise, as in BatchApp
+		final int threads = Integer.parseInt(App.getOption(args, "threads", "1"));
+		final long improveMillis = Long.parseLong(App.getOption(args, "improve-ms", Long.toString(FlightController.DEFAULT_IMPROVEMENT_BUDGET)));
+		final LegPlanner planner = App.getPlanner(App.getOption(args, "planner", "greedy"), Integer.parseInt(App.getOption(args, "astar-budget", Integer.toString(AStarPlanner.DEFAULT_BUDGET))));
+		this.dayPlanner = new DayPlanner(server, noFlyZones, startPoint, threads, planner, improveMillis);
+		dayPlanner.setEstimates(App.getEstimates(App.getOption(args, "estimates", "simulate")));
+		dayPlanner.setPortfolio(Integer.parseInt(args[2]), Long.parseLong(App.getOption(args, "portfolio-ms", "0")));
+		dayPlanner.setExactBudget(Long.parseLong(App.getOption(args, "exact-ms", "0")));
+		dayPlanner.setSpeculation(App.getSpeculation(App.getOption(args, "speculate", "off"), threads));
+		dayPlanner.setLegCache(legCache);
+
+		this.workers = Executors.newFixedThreadPool(workerCount);
+		this.http = HttpServer.create(new InetSocketAddress("localhost", listen), 0);
+		http.createContext("/plan", exchange -> respond(exchange, this::plan));
+		http.createContext("/metrics", exchange -> respond(exchange, this::metrics));
+		http.createContext("/health", exchange -> respond(exchange, e -> new Response(200, "text/plain", "ok")));
+		http.setExecutor(workers);
+	}
+
+	public static void main(String[] args) {
+		try {
+			PlanningService service = new PlanningService(args);
+			Runtime.getRuntime().addShutdownHook(new Thread(service::stop));
+			service.start();
+		} catch (IOException e) {
+			System.out.println("Error: Unable to start the planning service - " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	public void start() {
+		http.start();
+		saver.scheduleWithFixedDelay(this::saveCaches, SAVE_INTERVAL_SECONDS, SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+		System.out.println("Planning service listening on http://localhost:" + getPort() + "/plan");
+	}
+
+	// Stops accepting requests, waits briefly for those in progress, then saves the caches
+	public void stop() {
+		http.stop(1);
+		workers.shutdown();
+		saver.shutdown();
+		saveCaches();
+	}
+
+	public int getPort() {
+		return http.getAddress().getPort();
+	}
+
+	@SuppressWarnings("try")
+	private Response plan(HttpExchange exchange) throws IOException, InterruptedException {
+		Map<String, String> query = parseQuery(exchange.getRequestURI());
+		LocalDate date;
+		DayPlanner planner = dayPlanner;
+		try {
+			date = LocalDate.parse(query.getOrDefault("date", ""));
+			if(query.containsKey("lat") || query.containsKey("lng")) {
+				planner = dayPlanner.withStartPoint(new Coords(Double.parseDouble(query.get("lng")), Double.parseDouble(query.get("lat"))));
+			}
+		} catch (DateTimeException | NumberFormatException | NullPointerException e) {
+			return new Response(400, "text/plain", "Expected /plan?date=YYYY-MM-DD, optionally with both lat and lng");
+		}
+
+		DayPlanner.DayPlan plan = planner.planDay(String.format("%02d", date.getDayOfMonth()), String.format("%02d", date.getMonthValue()), Integer.toString(date.getYear()));
+		StringWriter body = new StringWriter();
+		JsonWriter json = new JsonWriter(body);
+		json.beginObject();
+		json.name("date").value(date.toString());
+		json.name("moves").value(plan.getMoveCount());
+		if(!plan.fits()) {
+			json.name("error").value("No path was found within " + DayPlanner.MAX_MOVES + " moves");
+			json.endObject();
+			return new Response(422, "application/json", body.toString());
+		}
+
+		try(Metrics.Timer timer = Metrics.time(Metrics.Phase.OUTPUT)) {
+			StringWriter flightpath = new StringWriter();
+			try(FlightPathWriter writer = new FlightPathWriter(flightpath)) {
+				writer.writePaths(plan.getPaths());
+			}
+			StringWriter readings = new StringWriter();
+			try(GeoJSONWriter writer = new GeoJSONWriter(readings)) {
+				plan.writeReadings(writer);
+			}
+			json.name("flightpath").value(flightpath.toString());
+			json.name("readings").jsonValue(readings.toString());
+		}
+		json.endObject();
+		return new Response(200, "application/json", body.toString());
+	}
+
+	private Response metrics(HttpExchange exchange) throws IOException {
+		StringWriter body = new StringWriter();
+		Metrics.writeReport(body);
+		return new Response(200, "application/json", body.toString());
+	}
+
+	// Runs a handler and sends its response, turning any failure into an error response rather than a dropped connection
+	private void respond(HttpExchange exchange, Handler handler) throws IOException {
+		Response response;
+		try {
+			if(!exchange.getRequestMethod().equals("GET")) {
+				response = new Response(405, "text/plain", "Only GET is supported");
+			} else {
+				response = handler.handle(exchange);
+			}
+		} catch (IOException e) {
+			response = new Response(502, "text/plain", "Error: Server connection exception - " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			response = new Response(503, "text/plain", "Error: Interrupted");
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			response = new Response(500, "text/plain", "Error: " + e);
+		}
+
+		byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", response.contentType + "; charset=utf-8");
+		exchange.sendResponseHeaders(response.status, body.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private void saveCaches() {
+		App.saveWordCache(wordCache);
+		App.saveLegCache(legCache);
+	}
+
+	private static Map<String, String> parseQuery(URI uri) {
+		Map<String, String> query = new HashMap<String, String>();
+		String raw = uri.getQuery(); // Already decoded
+		if(raw == null) return query;
+		for(String pair : raw.split("&")) {
+			var equals = pair.indexOf('=');
+			if(equals > 0) query.put(pair.substring(0, equals), pair.substring(equals + 1));
+		}
+		return query;
+	}
+
+	private interface Handler {
+		Response handle(HttpExchange exchange) throws IOException, InterruptedException;
+	}
+
+	private static class Response {
+		private final int status;
+		private final String contentType;
+		private final String body;
+
+		Response(int status, String contentType, String body) {
+			this.status = status;
+			this.contentType = contentType;
+			this.body = body;
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+// Reads the web server's three kinds of file token by token, building the objects the planner needs without an intermediate tree of JSON elements
+// The readers accept exactly what the Gson and mapbox parsing they replace accepted: unknown properties are skipped, and numbers and strings may stand in for each other.
+// Only the outer ring of each no-fly zone polygon is kept, straight into the primitive arrays NoFlyZone holds.
+public class ServerDataReader {
+
+	private static final int INITIAL_RING_CAPACITY = 16;
+
+	private ServerDataReader() {
+	}
+
+	// Reads air-quality-data.json, an array of {"location": ..., "battery": ..., "reading": ...} objects
+	public static Sensor[] readSensors(JsonReader reader) throws IOException {
+		List<Sensor> sensors = new ArrayList<Sensor>();
+		reader.beginArray();
+		while(reader.hasNext()) {
+			String location = null;
+			var battery = 0.0;
+			String reading = null;
+			reader.beginObject();
+			while(reader.hasNext()) {
+				switch(reader.nextName()) {
+				case "location":
+					location = nextString(reader);
+					break;
+				case "battery":
+					if(reader.peek() == JsonToken.NULL) reader.nextNull();
+					else battery = reader.nextDouble();
+					break;
+				case "reading":
+					reading = nextString(reader);
+					break;
+				default:
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			sensors.add(new Sensor(location, battery, reading));
+		}
+		reader.endArray();
+		return sensors.toArray(new Sensor[sensors.size()]);
+	}
+
+	// Reads a words details.json file, returning the position held in its "coordinates" object
+	public static Coords readCoords(JsonReader reader) throws IOException {
+		Coords coords = null;
+		reader.beginObject();
+		while(reader.hasNext()) {
+			if(!reader.nextName().equals("coordinates")) {
+				reader.skipValue();
+				continue;
+			}
+			Double lng = null;
+			Double lat = null;
+			reader.beginObject();
+			while(reader.hasNext()) {
+				switch(reader.nextName()) {
+				case "lng":
+					lng = reader.nextDouble();
+					break;
+				case "lat":
+					lat = reader.nextDouble();
+					break;
+				default:
+					reader.skipValue();
+				}
+			}
+			reader.endObject();
+			if(lng == null || lat == null) throw new IOException("The word details are missing a longitude or latitude");
+			coords = new Coords(lng, lat);
+		}
+		reader.endObject();
+		if(coords == null) throw new IOException("The word details have no coordinates");
+		return coords;
+	}
+
+	// Reads no-fly-zones.geojson, a FeatureCollection of Polygon features each with a "name" property
+	public static List<NoFlyZone> readNoFlyZones(JsonReader reader) throws IOException {
+		List<NoFlyZone> noFlyZones = new ArrayList<NoFlyZone>();
+		reader.beginObject();
+		while(reader.hasNext()) {
+			if(!reader.nextName().equals("features")) {
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			while(reader.hasNext()) {
+				noFlyZones.add(readNoFlyZone(reader));
+			}
+			reader.endArray();
+		}
+		reader.endObject();
+		return noFlyZones;
+	}
+
+	private static NoFlyZone readNoFlyZone(JsonReader reader) throws IOException {
+		String name = null;
+		double[][] ring = null;
+		reader.beginObject();
+		while(reader.hasNext()) {
+			switch(reader.nextName()) {
+			case "properties":
+				name = readName(reader);
+				break;
+			case "geometry":
+				ring = readPolygon(reader);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if(ring == null) throw new IOException("A no-fly zone feature has no geometry");
+		return new NoFlyZone(ring[0], ring[1], name);
+	}
+
+	private static String readName(JsonReader reader) throws IOException {
+		String name = null;
+		reader.beginObject();
+		while(reader.hasNext()) {
+			if(reader.nextName().equals("name")) name = nextString(reader);
+			else reader.skipValue();
+		}
+		reader.endObject();
+		return name;
+	}
+
+	// Reads a Polygon geometry, returning the longitudes and latitudes of its outer ring
+	// The type may come after the coordinates, so it is only checked once the whole geometry has been read.
+	private static double[][] readPolygon(JsonReader reader) throws IOException {
+		String type = null;
+		double[][] ring = null;
+		reader.beginObject();
+		while(reader.hasNext()) {
+			switch(reader.nextName()) {
+			case "type":
+				type = reader.nextString();
+				break;
+			case "coordinates":
+				ring = readOuterRing(reader);
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if(!"Polygon".equals(type) || ring == null) throw new IOException("Expected every no-fly zone to be a Polygon, but found " + type);
+		return ring;
+	}
+
+	// Reads the first ring of a polygon's coordinates, skipping any holes after it
+	private static double[][] readOuterRing(JsonReader reader) throws IOException {
+		double[] lngs = new double[INITIAL_RING_CAPACITY];
+		double[] lats = new double[INITIAL_RING_CAPACITY];
+		var count = 0;
+		reader.beginArray();
+		if(reader.hasNext()) {
+			reader.beginArray();
+			while(reader.hasNext()) {
+				if(count == lngs.length) {
+					lngs = Arrays.copyOf(lngs, 2 * count);
+					lats = Arrays.copyOf(lats, 2 * count);
+				}
+				reader.beginArray();
+				lngs[count] = reader.nextDouble();
+				lats[count] = reader.nextDouble();
+				while(reader.hasNext()) reader.skipValue(); // Any altitude is ignored
+				reader.endArray();
+				count++;
+			}
+			reader.endArray();
+		}
+		while(reader.hasNext()) reader.skipValue();
+		reader.endArray();
+		if(count == 0) throw new IOException("A no-fly zone polygon has no points");
+		return new double[][] {Arrays.copyOf(lngs, count), Arrays.copyOf(lats, count)};
+	}
+
+	// As Gson reads a String, accepting a number or boolean in its place and null as null
+	private static String nextString(JsonReader reader) throws IOException {
+		switch(reader.peek()) {
+		case NULL:
+			reader.nextNull();
+			return null;
+		case BOOLEAN:
+			return Boolean.toString(reader.nextBoolean());
+		default:
+			return reader.nextString();
+		}
+	}
+
+}
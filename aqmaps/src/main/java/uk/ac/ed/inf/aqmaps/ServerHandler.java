@@ -1,70 +1,190 @@
 package uk.ac.ed.inf.aqmaps;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 
-import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
 
 public class ServerHandler {
+	
+	public static final int DEFAULT_CONCURRENCY = 8;
+	public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+	
 	private final String uri;
+	private final HttpClient client; // One client is shared by every request, so connections can be reused
+	private final Duration timeout;
+	// At most as many requests as there are permits are in flight at once. The rest wait in the queue until one finishes.
+	private final Semaphore permits;
+	private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<Runnable>();
+	private WordCache wordCache = null;
 	
 	public ServerHandler(int port) {
+		this(port, DEFAULT_CONCURRENCY, DEFAULT_TIMEOUT);
+	}
+	
+	// maxConcurrent bounds how many requests are sent to the server at the same time, and timeout applies to each request individually
+	public ServerHandler(int port, int maxConcurrent, Duration timeout) {
 		this.uri = String.format("http://localhost:%d", port);
+		this.timeout = timeout;
+		this.permits = new Semaphore(maxConcurrent);
+		this.client = HttpClient.newBuilder()
+				.connectTimeout(timeout)
+				.build();
 	}
 	
 	// Retrieves sensor data from the server for a given day
 	public Sensor[] getSensorData(String year, String month, String day) throws IOException, InterruptedException {
 		
-		// Retrieve the server data using getServerData
-		String data = getServerData(buildUri("maps", new String[] {year, month, day}, "air-quality-data.json"));
-		
-		Gson gson = new GsonBuilder().create();
-		
-		// Parse into MapLocation classes
-		var locations = gson.fromJson(data, Sensor[].class);
-		
-		return locations;
+		// Retrieve the server data, parsing it into Sensors as it arrives
+		return await(getServerDataAsync(buildUri("maps", new String[] {year, month, day}, "air-quality-data.json"), ServerDataReader::readSensors));
 	}
 	
 	// Converts a given w3w word into it's coordinates by retrieving the relevant server data
 	public Coords convertWordToCoords(String location) throws IOException, InterruptedException {
-		String[] words = location.split("\\.");
-		
-		// Retrieve the server data using getServerData
-		String data = getServerData(buildUri("words", words, "details.json"));
+		return await(convertWordToCoordsAsync(location));
+	}
+	
+	// Asynchronous version of the above, which sends the request without waiting for the response
+	// If a word cache is in use, fresh cached coordinates are returned without contacting the server at all.
+	public CompletableFuture<Coords> convertWordToCoordsAsync(String location) {
+		final WordCache cache = wordCache;
+		if(cache != null) {
+			Coords cached = cache.get(location);
+			if(cached != null) return CompletableFuture.completedFuture(cached);
+		}
 		
-		Gson gson = new GsonBuilder().create();
+		String[] words = location.split("\\.");
 		
-		// Parse into a JsonObject so that we can dig into it and retrieve the coords
-		var jsonData = gson.fromJson(data, JsonObject.class);
+		// Retrieve the server data, parsing it as it arrives
+		CompletableFuture<Coords> request = getServerDataAsync(buildUri("words", words, "details.json"), ServerDataReader::readCoords);
+		if(cache == null) return request;
 		
-		var coords = jsonData.getAsJsonObject("coordinates");
+		// Store what we fetched, or fall back to stale cached coordinates if the server could not be reached
+		return request.handle((coords, error) -> {
+			if(error == null) {
+				cache.put(location, coords);
+				return coords;
+			}
+			Coords stale = cache.getStale(location);
+			if(stale != null) return stale;
+			throw (error instanceof CompletionException) ? (CompletionException) error : new CompletionException(error);
+		});
+	}
+	
+	// Sets the cache consulted by the word conversion methods, or null to always ask the server
+	public void setWordCache(WordCache cache) {
+		this.wordCache = cache;
+	}
+	
+	// Converts every given w3w word into its coordinates, sending the requests concurrently
+	// The coordinates are returned in the same order as the words.
+	public List<Coords> convertWordsToCoords(List<String> locations) throws IOException, InterruptedException {
+		List<CompletableFuture<Coords>> pending = new ArrayList<CompletableFuture<Coords>>();
+		for(String location : locations) {
+			pending.add(convertWordToCoordsAsync(location));
+		}
 		
-		// Return the coords as an instance of our Coords class
-		return new Coords(coords.get("lng").getAsDouble(), coords.get("lat").getAsDouble());
+		List<Coords> coordsList = new ArrayList<Coords>();
+		for(CompletableFuture<Coords> coords : pending) {
+			coordsList.add(await(coords));
+		}
+		return coordsList;
 	}
 	
-	// Simple method to retrieve the no-fly zones geojson data
-	public String getNoFlyZoneData() throws IOException, InterruptedException {
-		String data = getServerData(buildUri("buildings", new String[] {}, "no-fly-zones.geojson"));
-		return data;
+	// Retrieves the no-fly zones, parsing them as they arrive rather than holding the whole geojson text first
+	public CompletableFuture<List<NoFlyZone>> getNoFlyZonesAsync() {
+		return getServerDataAsync(buildUri("buildings", new String[] {}, "no-fly-zones.geojson"), ServerDataReader::readNoFlyZones);
+	}
+	
+	// Waits for an asynchronous request to finish, rethrowing any failure as the exception the synchronous methods have always thrown
+	public static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) throw (IOException) cause;
+			if(cause instanceof InterruptedException) throw (InterruptedException) cause;
+			throw new IOException(cause);
+		}
 	}
 	
-	// Helper method used for all of the above methods - does the actual server interaction
-	// We define a Java HttpClient and send a request using the given uri, returning whatever response we get
-	private String getServerData(URI fullUri) throws IOException, InterruptedException {
-		HttpClient client = HttpClient.newHttpClient();
+	// Queues a request for the given uri, sending it as soon as fewer than the maximum number of requests are in flight
+	// The response body is parsed with a JsonReader as it is read from the connection, so the whole text is never held in memory.
+	// The parse is timed as part of the PARSE phase, so that phase includes waiting for the rest of the body to arrive. The future fails with an IOException if the request fails, times out,
+	// the server does not respond with 200 OK, or the body cannot be parsed.
+	private <T> CompletableFuture<T> getServerDataAsync(URI fullUri, BodyParser<T> parser) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
 		HttpRequest request = HttpRequest.newBuilder()
 				.GET()
 				.uri(fullUri)
+				.timeout(timeout)
 				.build();
-		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-		return response.body();
+		
+		// The client's executor runs this once the headers arrive, and may block there reading the body, which the client delivers on its own thread
+		waiting.add(() -> client.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()).whenComplete((response, error) -> {
+			try {
+				if(error != null) {
+					Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+					result.completeExceptionally(cause instanceof IOException ? cause : new IOException(cause));
+				} else if(response.statusCode() != 200) {
+					response.body().close();
+					result.completeExceptionally(new IOException("Server responded with status " + response.statusCode() + " for " + fullUri));
+				} else {
+					result.complete(parse(response.body(), parser, fullUri));
+				}
+			} catch (IOException e) {
+				result.completeExceptionally(e);
+			} finally { // The permit is held until the body has been read, as it is when the body is read into a String
+				permits.release();
+				sendWaiting();
+			}
+		}));
+		sendWaiting();
+		
+		return result;
 	}
-
+	
+	@SuppressWarnings("try")
+	private static <T> T parse(InputStream body, BodyParser<T> parser, URI fullUri) throws IOException {
+		try(Metrics.Timer timer = Metrics.time(Metrics.Phase.PARSE); JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+			return parser.parse(reader);
+		} catch (IllegalStateException | NumberFormatException e) { // JsonReader's complaint about an unexpected token or number
+			throw new IOException("Unexpected response from " + fullUri + " - " + e.getMessage(), e);
+		}
+	}
+	
+	// Reads a response body into the object it describes
+	private interface BodyParser<T> {
+		T parse(JsonReader reader) throws IOException;
+	}
+	
+	// Sends queued requests for as long as there are permits available
+	private void sendWaiting() {
+		while(!waiting.isEmpty() && permits.tryAcquire()) {
+			Runnable next = waiting.poll();
+			if(next == null) { // Another thread took the last waiting request first, or one was queued while this thread held the permit and failed to get it
+				permits.release();
+				continue;
+			}
+			next.run();
+		}
+	}
+	
 	// Helper method that builds a Uri to retrieve a certain resource in the server
 	// Directory is the first folder, pathArgs allows us to traverse deeper into the folder in question, and file specifies the filename we want
 	private URI buildUri(String directory, String[] pathArgs, String file) {
@@ -0,0 +1,212 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// Improves a circuit using 2-opt and Or-opt moves, measured with the matrix of move counts
+// 2-opt reverses a section of the circuit, and Or-opt moves a run of up to three nodes to another place in it, either way round.
+// Move counts differ depending on the direction travelled, so reversed sections are costed in both directions using prefix sums.
+// Only moves that link a node to one of its nearest neighbours are tried, and nodes whose neighbourhood has nothing to offer are skipped (don't-look bits) until a change near them wakes them up.
+// Improvement stops when no move helps, or when the wall-clock budget runs out.
+public class TourImprover {
+
+	public static final int NEIGHBOURS = 8;
+	private static final int MAX_SEGMENT = 3;
+
+	private final int[][] cost;
+	private final int n;
+	private final int[][] neighbours;
+
+	private int[] tour; // The circuit, with node 0 always at position 0 and the return to it left implicit
+	private int[] pos; // The position of each node in the tour
+	private long[] forward; // forward[k] is the cost of travelling the tour from position 0 to position k
+	private long[] backward; // backward[k] is the cost of travelling the same positions in reverse
+
+	public TourImprover(int[][] cost) {
+		this.cost = cost;
+		this.n = cost.length;
+		this.neighbours = findNeighbours();
+	}
+
+	// Takes an order beginning and ending at node 0, as returned by GreedyEdgeTour, and returns an order that is never longer
+	public int[] improve(int[] order, long budgetMillis) {
+		if(n < 4 || budgetMillis <= 0) {
+			return order.clone();
+		}
+
+		final long deadline = System.nanoTime() + budgetMillis * 1_000_000;
+		tour = Arrays.copyOf(order, n);
+		pos = new int[n];
+		forward = new long[n + 1];
+		backward = new long[n + 1];
+		refresh();
+
+		boolean[] dontLook = new boolean[n];
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		for(int node : tour) {
+			queue.add(node);
+		}
+
+		while(!queue.isEmpty() && System.nanoTime() < deadline) {
+			int node = queue.poll();
+			dontLook[node] = true;
+			int[] touched = tryTwoOpt(node);
+			if(touched == null) touched = tryOrOpt(node);
+			if(touched != null) {
+				refresh();
+				for(int t : touched) { // Nodes next to the change may now have new improving moves available
+					if(dontLook[t]) {
+						dontLook[t] = false;
+						queue.add(t);
+					}
+				}
+			}
+		}
+
+		int[] improved = Arrays.copyOf(tour, n + 1);
+		improved[n] = tour[0];
+		return improved;
+	}
+
+	// Returns the total cost of an order which begins and ends at node 0
+	public long length(int[] order) {
+		long sum = 0;
+		for(int k = 0; k < order.length - 1; k++) {
+			sum += cost[order[k]][order[k+1]];
+		}
+		return sum;
+	}
+
+	// Tries every 2-opt move that would link the node directly to one of its neighbours, applying the first that shortens the tour
+	// Returns the nodes at the ends of the changed edges, or null if nothing was applied.
+	private int[] tryTwoOpt(int a) {
+		var p = pos[a];
+		for(int b : neighbours[a]) {
+			var q = pos[b];
+			int i;
+			int j;
+			if(q > p) { // Reversing positions p+1 to q makes a travel straight to b
+				i = p + 1;
+				j = q;
+			} else { // Reversing positions q to p-1 makes b travel straight to a
+				i = q;
+				j = p - 1;
+			}
+			if(i < 1 || j <= i) continue;
+			if(twoOptDelta(i, j) < 0) {
+				int[] touched = new int[] {at(i-1), tour[i], tour[j], at(j+1)};
+				reverse(i, j);
+				return touched;
+			}
+		}
+		return null;
+	}
+
+	// Tries moving a run of up to three nodes, starting or ending at the given node, so that it sits next to one of the node's neighbours
+	private int[] tryOrOpt(int a) {
+		var p = pos[a];
+		if(p == 0) return null; // The start point never moves
+		for(int length = 1; length <= MAX_SEGMENT; length++) {
+			for(int first = Math.max(1, p - length + 1); first <= p && first + length - 1 < n; first++) {
+				var last = first + length - 1;
+				var removeGain = cost[at(first-1)][tour[first]] + cost[tour[last]][at(last+1)] - cost[at(first-1)][at(last+1)];
+				var internalForward = forward[last] - forward[first];
+				var internalBackward = backward[last] - backward[first];
+
+				for(int b : neighbours[a]) {
+					var q = pos[b];
+					// The run can go straight after b, or straight before it
+					for(int after = q; after >= q - 1; after--) {
+						if(after >= first - 1 && after <= last) continue; // The run would end up where it already is
+						if(after < 0) continue;
+						var left = tour[after];
+						var right = at(after + 1);
+						var oldLink = cost[left][right];
+						long forwardDelta = cost[left][tour[first]] + cost[tour[last]][right] - oldLink - removeGain;
+						long reverseDelta = cost[left][tour[last]] + cost[tour[first]][right] - oldLink - removeGain + internalBackward - internalForward;
+						if(forwardDelta < 0 || reverseDelta < 0) {
+							int[] touched = new int[] {at(first-1), at(last+1), left, right, tour[first], tour[last]};
+							move(first, last, after, reverseDelta < forwardDelta);
+							return touched;
+						}
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	// The change in cost from reversing the tour between positions i and j inclusive
+	private long twoOptDelta(int i, int j) {
+		var before = at(i-1);
+		var after = at(j+1);
+		long removed = cost[before][tour[i]] + cost[tour[j]][after] + (forward[j] - forward[i]);
+		long added = cost[before][tour[j]] + cost[tour[i]][after] + (backward[j] - backward[i]);
+		return added - removed;
+	}
+
+	private void reverse(int i, int j) {
+		while(i < j) {
+			var temp = tour[i];
+			tour[i++] = tour[j];
+			tour[j--] = temp;
+		}
+	}
+
+	// Moves the run of positions first to last so that it follows position after, reversing it if asked
+	private void move(int first, int last, int after, boolean reversed) {
+		int[] run = Arrays.copyOfRange(tour, first, last + 1);
+		if(reversed) {
+			for(int k = 0; k < run.length / 2; k++) {
+				var temp = run[k];
+				run[k] = run[run.length - 1 - k];
+				run[run.length - 1 - k] = temp;
+			}
+		}
+		int[] rest = new int[n - run.length];
+		var k = 0;
+		var insertAt = -1;
+		for(int m = 0; m < n; m++) {
+			if(m >= first && m <= last) continue;
+			rest[k++] = tour[m];
+			if(m == after) insertAt = k;
+		}
+		System.arraycopy(rest, 0, tour, 0, insertAt);
+		System.arraycopy(run, 0, tour, insertAt, run.length);
+		System.arraycopy(rest, insertAt, tour, insertAt + run.length, rest.length - insertAt);
+	}
+
+	// Recomputes node positions and the prefix sums of the tour in both directions
+	private void refresh() {
+		for(int k = 0; k < n; k++) {
+			pos[tour[k]] = k;
+			if(k > 0) {
+				forward[k] = forward[k-1] + cost[tour[k-1]][tour[k]];
+				backward[k] = backward[k-1] + cost[tour[k]][tour[k-1]];
+			}
+		}
+	}
+
+	// The node at a position, where position n wraps back around to the start point
+	private int at(int position) {
+		return tour[position % n];
+	}
+
+	// Finds each node's nearest neighbours, using the shorter of the two directions between them
+	private int[][] findNeighbours() {
+		var k = Math.min(NEIGHBOURS, n - 1);
+		int[][] result = new int[n][];
+		for(int a = 0; a < n; a++) {
+			final int from = a;
+			result[a] = java.util.stream.IntStream.range(0, n)
+					.filter(b -> b != from)
+					.boxed()
+					.sorted((x, y) -> Integer.compare(Math.min(cost[from][x], cost[x][from]), Math.min(cost[from][y], cost[y][from])))
+					.limit(k)
+					.mapToInt(Integer::intValue)
+					.toArray();
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,207 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// Orders the sensors by running several construction heuristics side by side, each followed by TourImprover, and ranking the circuits they find
+// The strategies are sorted edges (as GreedyEdgeTour), nearest neighbour, cheapest insertion, and a number of restarts which insert the nodes in a random order.
+// Each restart draws its order from its own Random, made from the seed and the restart's number, so the result does not depend on which thread ran what.
+// Every strategy is given until the deadline to finish, and any still running then are abandoned. Given the same seed the results are identical, unless a strategy was cut short.
+public class TourPortfolio {
+
+	public static final int DEFAULT_RESTARTS = 12;
+
+	private final int[][] cost;
+	private final long seed;
+	private final int threads;
+	private final int restarts;
+
+	public TourPortfolio(int[][] cost, long seed, int threads) {
+		this(cost, seed, threads, DEFAULT_RESTARTS);
+	}
+
+	public TourPortfolio(int[][] cost, long seed, int threads, int restarts) {
+		this.cost = cost;
+		this.seed = seed;
+		this.threads = threads;
+		this.restarts = restarts;
+	}
+
+	// A circuit found by one of the strategies, with its estimated length
+	public static class Candidate {
+		private final String strategy;
+		private final int[] order;
+		private final long length;
+
+		Candidate(String strategy, int[] order, long length) {
+			this.strategy = strategy;
+			this.order = order;
+			this.length = length;
+		}
+
+		public String getStrategy() {
+			return strategy;
+		}
+
+		public int[] getOrder() {
+			return order;
+		}
+
+		public long getLength() {
+			return length;
+		}
+	}
+
+	// Runs every strategy, returning the distinct circuits found in order of estimated length
+	// Ties go to the strategy listed first, so the sorted edges circuit wins whenever nothing beats it.
+	public List<Candidate> run(long deadlineMillis) {
+		final long deadline = System.nanoTime() + deadlineMillis * 1_000_000;
+		List<String> names = new ArrayList<String>();
+		List<Supplier<int[]>> strategies = new ArrayList<Supplier<int[]>>();
+		names.add("sorted edges");
+		strategies.add(() -> GreedyEdgeTour.build(cost));
+		names.add("nearest neighbour");
+		strategies.add(() -> nearestNeighbour(cost));
+		names.add("cheapest insertion");
+		strategies.add(() -> cheapestInsertion(cost));
+		for(int r = 0; r < restarts; r++) {
+			final Random random = new Random(seed * 31 + r);
+			names.add("random insertion " + r);
+			strategies.add(() -> randomInsertion(cost, random));
+		}
+
+		int[][] orders = new int[strategies.size()][];
+		if(threads <= 1) {
+			for(int s = 0; s < strategies.size() && System.nanoTime() < deadline; s++) {
+				orders[s] = runStrategy(strategies.get(s), deadline);
+			}
+		} else {
+			ExecutorService pool = Executors.newFixedThreadPool(threads);
+			try {
+				List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+				for(Supplier<int[]> strategy : strategies) {
+					futures.add(pool.submit(() -> runStrategy(strategy, deadline)));
+				}
+				for(int s = 0; s < futures.size(); s++) {
+					orders[s] = awaitOrder(futures.get(s), deadline);
+				}
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		TourImprover measure = new TourImprover(cost);
+		for(int s = 0; s < orders.length; s++) {
+			if(orders[s] != null && !contains(candidates, orders[s])) {
+				candidates.add(new Candidate(names.get(s), orders[s], measure.length(orders[s])));
+			}
+		}
+		candidates.sort(Comparator.comparingLong(Candidate::getLength)); // The sort is stable, so ties keep the order of the strategies
+		return candidates;
+	}
+
+	// Builds a circuit and improves it with whatever time is left before the deadline
+	private int[] runStrategy(Supplier<int[]> strategy, long deadline) {
+		int[] circuit = strategy.get();
+		var remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+		return new TourImprover(cost).improve(circuit, Math.max(remaining, 1));
+	}
+
+	// Waits for a strategy until the deadline, returning null if it failed or did not finish in time
+	private static int[] awaitOrder(Future<int[]> future, long deadline) {
+		try {
+			return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			return null;
+		} catch (ExecutionException e) {
+			System.out.println("Warning: A tour strategy failed - " + e.getCause());
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	private static boolean contains(List<Candidate> candidates, int[] order) {
+		for(Candidate candidate : candidates) {
+			if(Arrays.equals(candidate.order, order)) return true;
+		}
+		return false;
+	}
+
+	// Starting from node 0, always travels to the nearest node not yet visited, with ties going to the lowest numbered node
+	static int[] nearestNeighbour(int[][] cost) {
+		final int n = cost.length;
+		int[] order = new int[n + 1];
+		boolean[] visited = new boolean[n];
+		visited[0] = true;
+		for(int k = 1; k < n; k++) {
+			var curr = order[k-1];
+			var next = -1;
+			for(int j = 0; j < n; j++) {
+				if(!visited[j] && (next == -1 || cost[curr][j] < cost[curr][next])) next = j;
+			}
+			visited[next] = true;
+			order[k] = next;
+		}
+		return order;
+	}
+
+	// Starting from node 0 alone, repeatedly inserts whichever remaining node adds the fewest moves, at the place where it adds them
+	static int[] cheapestInsertion(int[][] cost) {
+		final int n = cost.length;
+		int[] order = new int[] {0, 0};
+		boolean[] placed = new boolean[n];
+		placed[0] = true;
+		for(int k = 1; k < n; k++) {
+			var bestNode = -1;
+			var bestIncrease = Long.MAX_VALUE;
+			for(int node = 0; node < n; node++) {
+				if(placed[node]) continue;
+				for(int p = 0; p < order.length - 1; p++) {
+					long increase = (long) cost[order[p]][node] + cost[node][order[p+1]] - cost[order[p]][order[p+1]];
+					if(increase < bestIncrease) {
+						bestIncrease = increase;
+						bestNode = node;
+					}
+				}
+			}
+			placed[bestNode] = true;
+			order = FlightController.insertCheapest(order, bestNode, cost);
+		}
+		return order;
+	}
+
+	// Inserts the nodes in a random order, each at the place where it adds the fewest moves
+	static int[] randomInsertion(int[][] cost, Random random) {
+		final int n = cost.length;
+		int[] nodes = new int[n - 1];
+		for(int i = 0; i < nodes.length; i++) {
+			nodes[i] = i + 1;
+		}
+		for(int i = nodes.length - 1; i > 0; i--) { // Fisher-Yates shuffle
+			var j = random.nextInt(i + 1);
+			var temp = nodes[i];
+			nodes[i] = nodes[j];
+			nodes[j] = temp;
+		}
+		int[] order = new int[] {0, 0};
+		for(int node : nodes) {
+			order = FlightController.insertCheapest(order, node, cost);
+		}
+		return order;
+	}
+
+}
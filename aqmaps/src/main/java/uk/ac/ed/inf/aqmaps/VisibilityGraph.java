@@ -0,0 +1,221 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Estimates the number of moves between points from the shortest paths around the no-fly zones, rather than simulating the drone
+// The graph's nodes are the given points, along with every corner of every zone pushed slightly outwards, so that paths can pass around the zones.
+// Two nodes are joined if the straight line between them crosses no zone, and the shortest distance from each point to every other is found with Dijkstra's algorithm.
+// Corners outside the confinement area are left out, so no path leaves it.
+// The estimates ignore the rounding of bearings and the turns the drone makes around corners, so real legs are often a little longer, but the relative lengths that the ordering depends on are close.
+public class VisibilityGraph {
+
+	private static final double OFFSET = 1e-5; // How far outside its zone each corner node is placed, roughly a metre
+
+	private final int pointCount; // Nodes 0 to pointCount-1 are the given points, and the rest are corners
+	private final int nodeCount;
+	private final double[] lng;
+	private final double[] lat;
+	private final double[][] distances; // The shortest distance from each point to every other point
+
+	// The edges of node v go to adjacentNode[adjacentStart[v]] up to (but excluding) adjacentNode[adjacentStart[v+1]]
+	private final int[] adjacentStart;
+	private final int[] adjacentNode;
+	private final double[] adjacentLength;
+
+	public VisibilityGraph(List<NoFlyZone> zones, NoFlyIndex noFly, List<Coords> points) {
+		var maxNodes = points.size();
+		for(NoFlyZone zone : zones) {
+			maxNodes += zone.getEdgeCount();
+		}
+		double[] nodeLng = new double[maxNodes];
+		double[] nodeLat = new double[maxNodes];
+		var count = 0;
+		for(Coords point : points) {
+			nodeLng[count] = point.getLng();
+			nodeLat[count] = point.getLat();
+			count++;
+		}
+		for(NoFlyZone zone : zones) {
+			count = addCorners(zone, nodeLng, nodeLat, count);
+		}
+		this.pointCount = points.size();
+		this.nodeCount = count;
+		this.lng = nodeLng;
+		this.lat = nodeLat;
+
+		// Every pair of nodes which can see each other is joined by an edge as long as the straight line between them
+		// Most pairs are hidden from each other once there are many zones, so the edges are kept as adjacency lists rather than a full matrix.
+		// The visible pairs are recorded in a growable list as they are found, and then sorted into the lists by node.
+		int[] pairs = new int[2 * Math.max(16, nodeCount)];
+		var pairCount = 0;
+		int[] degree = new int[nodeCount];
+		for(int i = 0; i < nodeCount; i++) {
+			for(int j = i + 1; j < nodeCount; j++) {
+				if(!noFly.intersects(lng[i], lat[i], lng[j], lat[j])) {
+					if(2 * pairCount == pairs.length) pairs = Arrays.copyOf(pairs, 2 * pairs.length);
+					pairs[2 * pairCount] = i;
+					pairs[2 * pairCount + 1] = j;
+					pairCount++;
+					degree[i]++;
+					degree[j]++;
+				}
+			}
+		}
+		this.adjacentStart = new int[nodeCount + 1];
+		for(int i = 0; i < nodeCount; i++) {
+			adjacentStart[i+1] = adjacentStart[i] + degree[i];
+		}
+		this.adjacentNode = new int[adjacentStart[nodeCount]];
+		this.adjacentLength = new double[adjacentStart[nodeCount]];
+		int[] filled = new int[nodeCount];
+		for(int p = 0; p < pairCount; p++) {
+			var i = pairs[2 * p];
+			var j = pairs[2 * p + 1];
+			var length = Math.hypot(lng[j] - lng[i], lat[j] - lat[i]);
+			addEdge(i, j, length, filled);
+			addEdge(j, i, length, filled);
+		}
+
+		this.distances = new double[pointCount][];
+		for(int i = 0; i < pointCount; i++) {
+			distances[i] = shortestDistances(i);
+		}
+	}
+
+	// The shortest distance between two of the given points around the zones, or infinity if there is no way between them
+	public double distance(int from, int to) {
+		return distances[from][to];
+	}
+
+	// Estimates the leg between two of the given points, or returns null if the graph has no path between them
+	// The drone only has to finish within range of its target, and every move covers the same distance, so the estimate is the number of moves needed to cover the rest.
+	public LegEstimate estimate(int from, int to) {
+		var distance = distance(from, to);
+		if(Double.isInfinite(distance)) return null;
+		var moves = Math.max(1, (int) Math.ceil((distance - FlightPath.CLOSE_RANGE) / FlightPath.MOVE));
+		return new LegEstimate(moves, new Coords(lng[to], lat[to]));
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	// Adds a node just outside every corner of a zone, pushed out along the bisector of the normals of the two edges meeting there
+	private static int addCorners(NoFlyZone zone, double[] nodeLng, double[] nodeLat, int count) {
+		List<Coords> ring = zone.getPointList();
+		var corners = zone.getEdgeCount(); // The ring is closed, so its last point repeats the first
+		if(corners < 3) return count;
+
+		// The signed area tells us which way round the ring goes, and so which side of each edge is outside
+		var area = 0.0;
+		for(int k = 0; k < corners; k++) {
+			area += ring.get(k).getLng() * ring.get(k+1).getLat() - ring.get(k+1).getLng() * ring.get(k).getLat();
+		}
+		var outward = (area > 0) ? 1 : -1;
+
+		for(int k = 0; k < corners; k++) {
+			Coords prev = ring.get((k + corners - 1) % corners);
+			Coords curr = ring.get(k);
+			Coords next = ring.get(k + 1);
+			double[] inNormal = normal(prev, curr, outward);
+			double[] outNormal = normal(curr, next, outward);
+			var dx = inNormal[0] + outNormal[0];
+			var dy = inNormal[1] + outNormal[1];
+			var length = Math.hypot(dx, dy);
+			if(length == 0) continue; // The edges fold back on themselves, so there is no outside to push towards
+
+			var cornerLng = curr.getLng() + OFFSET * dx / length;
+			var cornerLat = curr.getLat() + OFFSET * dy / length;
+			if(!FlightPath.leavesConfinementZone(cornerLng, cornerLat)) {
+				nodeLng[count] = cornerLng;
+				nodeLat[count] = cornerLat;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	// The unit normal of the edge from a to b, pointing out of the zone
+	private static double[] normal(Coords a, Coords b, int outward) {
+		var dx = b.getLng() - a.getLng();
+		var dy = b.getLat() - a.getLat();
+		var length = Math.hypot(dx, dy);
+		if(length == 0) return new double[] {0, 0};
+		return new double[] {outward * dy / length, -outward * dx / length};
+	}
+
+	private void addEdge(int from, int to, double length, int[] filled) {
+		var k = adjacentStart[from] + filled[from]++;
+		adjacentNode[k] = to;
+		adjacentLength[k] = length;
+	}
+
+	// Dijkstra's algorithm from one of the points, returning its distance to every point
+	// The heap may hold several entries for a node, of which only the shortest is used. The search stops as soon as every point has been reached, as the corners beyond them are never needed.
+	private double[] shortestDistances(int source) {
+		double[] dist = new double[nodeCount];
+		boolean[] done = new boolean[nodeCount];
+		Arrays.fill(dist, Double.POSITIVE_INFINITY);
+		dist[source] = 0;
+
+		double[] heapDist = new double[adjacentNode.length + 1];
+		int[] heapNode = new int[adjacentNode.length + 1];
+		var heapSize = 0;
+		heapDist[0] = 0;
+		heapNode[0] = source;
+		heapSize++;
+
+		var pointsLeft = pointCount;
+		while(heapSize > 0 && pointsLeft > 0) {
+			var node = heapNode[0];
+			var nodeDist = heapDist[0];
+			heapSize--;
+			siftDown(heapDist, heapNode, heapSize, heapDist[heapSize], heapNode[heapSize]);
+			if(done[node]) continue;
+			done[node] = true;
+			if(node < pointCount) pointsLeft--;
+
+			for(int k = adjacentStart[node]; k < adjacentStart[node+1]; k++) {
+				var next = adjacentNode[k];
+				var through = nodeDist + adjacentLength[k];
+				if(through < dist[next]) {
+					dist[next] = through;
+					siftUp(heapDist, heapNode, heapSize++, through, next);
+				}
+			}
+		}
+		return Arrays.copyOf(dist, pointCount);
+	}
+
+	// Places an entry at position i of the heap, moving it up towards the root until its parent is no further away
+	private static void siftUp(double[] heapDist, int[] heapNode, int i, double entryDist, int entryNode) {
+		while(i > 0) {
+			var parent = (i - 1) / 2;
+			if(heapDist[parent] <= entryDist) break;
+			heapDist[i] = heapDist[parent];
+			heapNode[i] = heapNode[parent];
+			i = parent;
+		}
+		heapDist[i] = entryDist;
+		heapNode[i] = entryNode;
+	}
+
+	// Places an entry at the root of a heap of the given size, moving it down until neither child is nearer
+	private static void siftDown(double[] heapDist, int[] heapNode, int size, double entryDist, int entryNode) {
+		if(size == 0) return;
+		var i = 0;
+		while(true) {
+			var child = 2 * i + 1;
+			if(child >= size) break;
+			if(child + 1 < size && heapDist[child + 1] < heapDist[child]) child++;
+			if(heapDist[child] >= entryDist) break;
+			heapDist[i] = heapDist[child];
+			heapNode[i] = heapNode[child];
+			i = child;
+		}
+		heapDist[i] = entryDist;
+		heapNode[i] = entryNode;
+	}
+
+}
@@ -0,0 +1,167 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A persistent cache of the coordinates of what3words addresses, so repeat runs can skip asking the server for sensors they have seen before
+// The cache is stored in a compact binary file, which is memory-mapped and read in full when it is opened:
+//   header - magic number, format version, entry count
+//   entry  - word length, UTF-8 word bytes, lng, lat, time fetched, time last used
+// Entries older than the maximum age are treated as stale and fetched again, and only the most recently used entries are kept when saving.
+// A file which is missing, from another version, or damaged is ignored, and the cache simply starts empty.
+public class WordCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 100000;
+	public static final long DEFAULT_MAX_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000; // 30 days
+
+	private static final int MAGIC = 0x41515743; // "AQWC"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+	private static final int ENTRY_FIXED_SIZE = 2 + 8 + 8 + 8 + 8;
+
+	private final Path file;
+	private final int maxEntries;
+	private final long maxAgeMillis;
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private boolean changed = false;
+
+	public WordCache(Path file) {
+		this(file, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_AGE_MILLIS);
+	}
+
+	public WordCache(Path file, int maxEntries, long maxAgeMillis) {
+		this.file = file;
+		this.maxEntries = maxEntries;
+		this.maxAgeMillis = maxAgeMillis;
+		load();
+	}
+
+	// Returns the cached coordinates of a word, or null if it has not been cached or its entry is stale
+	// A hit only updates the time last used in memory. It is written out with the next save that has new words to store, so a run which fetches nothing new leaves the file alone.
+	public synchronized Coords get(String word) {
+		Entry entry = entries.get(word);
+		if(entry == null || System.currentTimeMillis() - entry.fetched > maxAgeMillis) {
+			return null;
+		}
+		entry.lastUsed = System.currentTimeMillis();
+		return entry.coords;
+	}
+
+	// Returns the cached coordinates of a word even if they are stale, for use when the server cannot be reached to refresh them
+	public synchronized Coords getStale(String word) {
+		Entry entry = entries.get(word);
+		return (entry == null) ? null : entry.coords;
+	}
+
+	public synchronized void put(String word, Coords coords) {
+		var now = System.currentTimeMillis();
+		entries.put(word, new Entry(coords, now, now));
+		changed = true;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	// Writes the cache back to its file if anything has changed, keeping only the most recently used entries
+	// The file is written to a temporary file first and then moved into place, so a crash can never leave it half written.
+	public synchronized void save() throws IOException {
+		if(!changed) return;
+
+		List<Map.Entry<String, Entry>> kept = new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+		if(kept.size() > maxEntries) {
+			kept.sort((a, b) -> Long.compare(b.getValue().lastUsed, a.getValue().lastUsed));
+			kept = kept.subList(0, maxEntries);
+		}
+
+		List<byte[]> words = new ArrayList<byte[]>();
+		long size = HEADER_SIZE;
+		for(Map.Entry<String, Entry> entry : kept) {
+			byte[] word = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			words.add(word);
+			size += ENTRY_FIXED_SIZE + word.length;
+		}
+
+		Path parent = file.toAbsolutePath().getParent();
+		if(parent != null) Files.createDirectories(parent);
+		Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+		try {
+			writeEntries(temp, kept, words, size);
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp); // Only left behind if the write or the move failed
+		}
+		changed = false;
+	}
+
+	private static void writeEntries(Path temp, List<Map.Entry<String, Entry>> kept, List<byte[]> words, long size) throws IOException {
+		try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(kept.size());
+			for(int i = 0; i < kept.size(); i++) {
+				Entry entry = kept.get(i).getValue();
+				buffer.putShort((short) words.get(i).length);
+				buffer.put(words.get(i));
+				buffer.putDouble(entry.coords.getLng());
+				buffer.putDouble(entry.coords.getLat());
+				buffer.putLong(entry.fetched);
+				buffer.putLong(entry.lastUsed);
+			}
+			buffer.force();
+		}
+	}
+
+	// Maps the cache file into memory and reads every valid entry from it
+	private void load() {
+		if(!Files.isRegularFile(file)) return;
+
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if(buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				System.out.println("Ignoring word cache " + file + " as it is not in the expected format.");
+				return;
+			}
+			var count = buffer.getInt();
+			for(int i = 0; i < count; i++) {
+				byte[] word = new byte[buffer.getShort() & 0xffff];
+				buffer.get(word);
+				var lng = buffer.getDouble();
+				var lat = buffer.getDouble();
+				var fetched = buffer.getLong();
+				var lastUsed = buffer.getLong();
+				if(Double.isFinite(lng) && Double.isFinite(lat)) { // Anything else cannot be a real location, so is dropped
+					entries.put(new String(word, StandardCharsets.UTF_8), new Entry(new Coords(lng, lat), fetched, lastUsed));
+				}
+			}
+		} catch (IOException | BufferUnderflowException e) {
+			System.out.println("Ignoring word cache " + file + " as it could not be read.");
+			entries.clear();
+		}
+	}
+
+	private static class Entry {
+		private final Coords coords;
+		private final long fetched;
+		private long lastUsed;
+
+		Entry(Coords coords, long fetched, long lastUsed) {
+			this.coords = coords;
+			this.fetched = fetched;
+			this.lastUsed = lastUsed;
+		}
+	}
+
+}
@@ -0,0 +1,138 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+// Checks that Held-Karp and branch and bound agree on the shortest circuit, and that a search which runs out of time keeps the best circuit it found
+public class ExactTourTest {
+
+	private static final long BUDGET_MILLIS = 60000; // Far more than any of these matrices needs, so that both searches finish
+
+	@Test
+	public void randomMatricesAgree() {
+		Random random = new Random(81);
+		for(int n = 4; n <= 15; n++) {
+			for(int round = 0; round < 4; round++) {
+				// A narrow range of move counts gives many circuits of the same length
+				int[][] cost = randomMatrix(random, n, (round % 2 == 0) ? 10 : 200);
+				int[] known = GreedyEdgeTour.build(cost);
+				var message = "Matrix " + Arrays.deepToString(cost);
+
+				ExactTour heldKarp = new ExactTour(cost);
+				int[] heldKarpOrder = heldKarp.solve(known, BUDGET_MILLIS, true);
+				assertTrue(message, heldKarp.isOptimal());
+				assertCircuit(message, n, heldKarpOrder);
+
+				ExactTour branchAndBound = new ExactTour(cost);
+				int[] branchAndBoundOrder = branchAndBound.solve(known, BUDGET_MILLIS, false);
+				assertTrue(message, branchAndBound.isOptimal());
+				assertCircuit(message, n, branchAndBoundOrder);
+
+				assertEquals(message, heldKarp.length(heldKarpOrder), branchAndBound.length(branchAndBoundOrder));
+				assertTrue(message, heldKarp.length(heldKarpOrder) <= heldKarp.length(known));
+				if(n <= 8) assertEquals(message, shortestByPermutation(cost), heldKarp.length(heldKarpOrder));
+			}
+		}
+	}
+
+	// solve picks Held-Karp by itself for matrices this small
+	@Test
+	public void defaultMethodIsOptimal() {
+		int[][] cost = randomMatrix(new Random(82), 12, 50);
+		int[] known = GreedyEdgeTour.build(cost);
+		ExactTour solver = new ExactTour(cost);
+		int[] order = solver.solve(known, BUDGET_MILLIS);
+		assertTrue(solver.isOptimal());
+		ExactTour branchAndBound = new ExactTour(cost);
+		assertEquals(branchAndBound.length(branchAndBound.solve(known, BUDGET_MILLIS, false)), solver.length(order));
+	}
+
+	// With no time at all, branch and bound still returns the shortest circuit found before it first looked at the clock
+	@Test
+	public void branchAndBoundTimeoutKeepsBestSoFar() {
+		int[][] cost = randomMatrix(new Random(83), 40, 1000);
+		int[] known = new int[41];
+		for(int i = 0; i < 40; i++) {
+			known[i] = i; // Visiting the nodes in numbered order, which is far from the shortest
+		}
+		ExactTour solver = new ExactTour(cost);
+		int[] order = solver.solve(known, 0);
+		assertFalse(solver.isOptimal());
+		assertCircuit("Timed out order", 40, order);
+		assertTrue(solver.length(order) < solver.length(known));
+	}
+
+	// Held-Karp only has a circuit once its table is complete, so running out of time returns the known circuit
+	@Test
+	public void heldKarpTimeoutKeepsKnown() {
+		int[][] cost = randomMatrix(new Random(84), 16, 1000);
+		int[] known = GreedyEdgeTour.build(cost);
+		ExactTour solver = new ExactTour(cost);
+		int[] order = solver.solve(known, 0, true);
+		assertFalse(solver.isOptimal());
+		assertArrayEquals(known, order);
+	}
+
+	// Asymmetric move counts, with no leg the same length both ways except by chance
+	private static int[][] randomMatrix(Random random, int n, int range) {
+		int[][] cost = new int[n][n];
+		for(int i = 0; i < n; i++) {
+			for(int j = 0; j < n; j++) {
+				if(i != j) cost[i][j] = 1 + random.nextInt(range);
+			}
+		}
+		return cost;
+	}
+
+	// Whether the order starts and ends at node 0 and visits every other node exactly once
+	private static void assertCircuit(String message, int n, int[] order) {
+		assertEquals(message, n + 1, order.length);
+		assertEquals(message, 0, order[0]);
+		assertEquals(message, 0, order[n]);
+		boolean[] seen = new boolean[n];
+		for(int k = 0; k < n; k++) {
+			assertFalse(message, seen[order[k]]);
+			seen[order[k]] = true;
+		}
+	}
+
+	// The shortest circuit from trying every order of nodes 1 to n-1
+	private static long shortestByPermutation(int[][] cost) {
+		int[] rest = new int[cost.length - 1];
+		for(int i = 0; i < rest.length; i++) {
+			rest[i] = i + 1;
+		}
+		return permute(cost, rest, 0);
+	}
+
+	private static long permute(int[][] cost, int[] rest, int k) {
+		if(k == rest.length) {
+			long length = cost[0][rest[0]] + cost[rest[rest.length - 1]][0];
+			for(int i = 0; i < rest.length - 1; i++) {
+				length += cost[rest[i]][rest[i+1]];
+			}
+			return length;
+		}
+		var shortest = Long.MAX_VALUE;
+		for(int i = k; i < rest.length; i++) {
+			swap(rest, k, i);
+			shortest = Math.min(shortest, permute(cost, rest, k + 1));
+			swap(rest, k, i);
+		}
+		return shortest;
+	}
+
+	private static void swap(int[] values, int i, int j) {
+		var value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+}
@@ -0,0 +1,131 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mapbox.geojson.Feature;
+
+// Checks that a flight log written and read back gives exactly the flightpath text and readings geojson written straight from the flight
+public class FlightLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void campusRoundTrip() throws IOException {
+		List<FlightPath> paths = TestFixtures.campusPaths();
+		Path file = writeLog("campus.aqfl", paths);
+		FlightLog log = new FlightLog(file);
+
+		assertEquals(pathText(paths), logText(log));
+		assertEquals(readingsJson(paths), logJson(log));
+
+		var moves = 0;
+		for(FlightPath path : paths) {
+			moves += path.getMoveCount();
+		}
+		assertEquals(moves, log.getMoveCount());
+		Sensor[] sensors = TestFixtures.campusSensors();
+		assertEquals(sensors.length, log.getSensorCount());
+		for(int i = 0; i < sensors.length; i++) {
+			assertEquals(sensors[i].getLocation(), log.getSensor(i).getLocation());
+			assertEquals(sensors[i].getReading(), log.getSensor(i).getReading());
+			assertEquals(sensors[i].getBattery(), log.getSensor(i).getBattery(), 0);
+		}
+	}
+
+	// The converter names its outputs after the date in the log's name, beside it
+	@Test
+	public void converterMatchesTextWriters() throws IOException {
+		List<FlightPath> paths = TestFixtures.campusPaths();
+		Path file = writeLog("flightlog-01-01-2020.aqfl", paths);
+		FlightLogConverter.convert(file, "both");
+		assertEquals(pathText(paths), read(file.resolveSibling("flightpath-01-01-2020.txt")));
+		assertEquals(readingsJson(paths), read(file.resolveSibling("readings-01-01-2020.geojson")));
+	}
+
+	@Test
+	public void emptyFlightRoundTrip() throws IOException {
+		List<FlightPath> paths = Arrays.asList();
+		FlightLog log = new FlightLog(writeLog("empty.aqfl", paths));
+		assertEquals(0, log.getMoveCount());
+		assertEquals("", logText(log));
+		assertEquals(readingsJson(paths), logJson(log));
+	}
+
+	@Test
+	public void truncatedLogIsRejected() throws IOException {
+		Path file = writeLog("campus.aqfl", TestFixtures.campusPaths());
+		byte[] bytes = Files.readAllBytes(file);
+		for(int length : new int[] {0, FlightLogWriter.HEADER_SIZE - 1, FlightLogWriter.HEADER_SIZE + 3, bytes.length - 5}) {
+			Path truncated = folder.getRoot().toPath().resolve("truncated-" + length + ".aqfl");
+			Files.write(truncated, Arrays.copyOf(bytes, length));
+			try {
+				new FlightLog(truncated);
+				fail("A log cut to " + length + " of " + bytes.length + " bytes was read");
+			} catch (IOException e) {
+				// Expected
+			}
+		}
+	}
+
+	private Path writeLog(String name, List<FlightPath> paths) throws IOException {
+		Path file = folder.getRoot().toPath().resolve(name);
+		try(FlightLogWriter writer = new FlightLogWriter(file, TestFixtures.CAMPUS_START, TestFixtures.campusSensors(), TestFixtures.campusCoords())) {
+			writer.writePaths(paths);
+		}
+		return file;
+	}
+
+	private static String pathText(List<FlightPath> paths) throws IOException {
+		StringWriter text = new StringWriter();
+		try(FlightPathWriter writer = new FlightPathWriter(text)) {
+			writer.writePaths(paths);
+		}
+		return text.toString();
+	}
+
+	private static String readingsJson(List<FlightPath> paths) throws IOException {
+		StringWriter text = new StringWriter();
+		try(GeoJSONWriter writer = new GeoJSONWriter(text)) {
+			for(Feature marker : TestFixtures.campusMarkers()) {
+				writer.writeFeature(marker);
+			}
+			writer.writePath(TestFixtures.CAMPUS_START, paths);
+		}
+		return text.toString();
+	}
+
+	private static String logText(FlightLog log) throws IOException {
+		StringWriter text = new StringWriter();
+		try(FlightPathWriter writer = new FlightPathWriter(text)) {
+			log.writeFlightPath(writer);
+		}
+		return text.toString();
+	}
+
+	private static String logJson(FlightLog log) throws IOException {
+		StringWriter text = new StringWriter();
+		try(GeoJSONWriter writer = new GeoJSONWriter(text)) {
+			log.writeReadings(writer);
+		}
+		return text.toString();
+	}
+
+	private static String read(Path file) throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,94 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+// Checks that the fast number formatting in FlightPathWriter gives exactly the text String.format does
+public class FlightPathWriterTest {
+
+	private static final int SAMPLES = 20000;
+
+	@Test
+	public void coordinatesMatchFormat() {
+		Random random = new Random(11);
+		for(int i = 0; i < SAMPLES; i++) {
+			assertFormatted(-3.192473 + random.nextDouble() * 0.008154);
+			assertFormatted(55.942617 + random.nextDouble() * 0.003616);
+		}
+	}
+
+	@Test
+	public void randomValuesMatchFormat() {
+		Random random = new Random(12);
+		for(int i = 0; i < SAMPLES; i++) {
+			assertFormatted((random.nextDouble() * 2 - 1) * Math.pow(10, random.nextInt(19) - 9)); // From about 1e-9 up to 1e9
+			assertFormatted(Double.longBitsToDouble(random.nextLong())); // Anything at all, including NaN and the infinities
+		}
+	}
+
+	// Values whose seventh decimal place is a 5 with nothing after it in their shortest form, which %f rounds up, and their neighbours either side
+	@Test
+	public void halfwayValuesMatchFormat() {
+		Random random = new Random(13);
+		for(int i = 0; i < SAMPLES; i++) {
+			var digits = random.nextInt(16) + 1;
+			var whole = (long) (random.nextDouble() * Math.pow(10, digits - 1));
+			var value = Double.parseDouble(whole + "." + String.format(Locale.ROOT, "%06d", random.nextInt(1000000)) + "5");
+			assertFormatted(value);
+			assertFormatted(-value);
+			assertFormatted(Math.nextUp(value));
+			assertFormatted(Math.nextDown(value));
+		}
+		assertFormatted(0.0000005);
+		assertFormatted(2.5e-7);
+		assertFormatted(1.0000005);
+		assertFormatted(-55.9444445);
+	}
+
+	@Test
+	public void edgeCasesMatchFormat() {
+		assertFormatted(0.0);
+		assertFormatted(-0.0);
+		assertFormatted(-1e-7); // Rounds to zero but keeps its sign
+		assertFormatted(-4e-7);
+		assertFormatted(Double.MIN_VALUE);
+		assertFormatted(0.9999995);
+		assertFormatted(999999.9999995);
+		assertFormatted(FlightPathWriter.MAX_FAST_VALUE);
+		assertFormatted(-FlightPathWriter.MAX_FAST_VALUE);
+		assertFormatted(Math.nextDown(FlightPathWriter.MAX_FAST_VALUE));
+		assertFormatted(Math.nextUp(FlightPathWriter.MAX_FAST_VALUE));
+		assertFormatted(FlightPathWriter.MAX_FAST_VALUE - 0.0000005);
+		assertFormatted(1e12 + 0.5);
+		assertFormatted(Double.MAX_VALUE);
+		assertFormatted(Double.NaN);
+		assertFormatted(Double.POSITIVE_INFINITY);
+		assertFormatted(Double.NEGATIVE_INFINITY);
+	}
+
+	@Test
+	public void writeMoveMatchesFormat() throws IOException {
+		StringWriter text = new StringWriter();
+		try(FlightPathWriter writer = new FlightPathWriter(text)) {
+			writer.writeMove(-3.1878, 55.9444, 340, -3.18790260604, 55.94468190778, "null");
+			writer.writeMove(-3.18790260604, 55.94468190778, 0, -3.18760260604, 55.94468190778, "slips.mass.baking");
+		}
+		var expected = String.format(Locale.ROOT, "%d,%f,%f,%d,%f,%f,%s\n", 1, -3.1878, 55.9444, 340, -3.18790260604, 55.94468190778, "null")
+				+ String.format(Locale.ROOT, "%d,%f,%f,%d,%f,%f,%s\n", 2, -3.18790260604, 55.94468190778, 0, -3.18760260604, 55.94468190778, "slips.mass.baking");
+		assertEquals(expected, text.toString());
+	}
+
+	private static void assertFormatted(double value) {
+		char[] buffer = new char[512];
+		var end = FlightPathWriter.appendFixed(value, buffer, 3);
+		assertEquals("Formatting " + value + " (bits " + Long.toHexString(Double.doubleToRawLongBits(value)) + ")",
+				String.format(Locale.ROOT, "%f", value), new String(buffer, 3, end - 3));
+	}
+
+}
@@ -0,0 +1,81 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.FeatureCollection;
+import com.mapbox.geojson.Point;
+
+// Checks that GeoJSONWriter streams exactly the text FeatureCollection.toJson gives for the same markers and path
+public class GeoJSONWriterTest {
+
+	@Test
+	public void campusMatchesFeatureCollection() throws IOException {
+		assertSameJson(TestFixtures.campusMarkers(), TestFixtures.CAMPUS_START, TestFixtures.campusPaths());
+	}
+
+	// Legs between random points with no zones in the way, so that every coordinate has a full run of decimal places to trim
+	@Test
+	public void randomPathsMatchFeatureCollection() throws IOException {
+		Random random = new Random(91);
+		NoFlyIndex noFly = new NoFlyIndex(new ArrayList<NoFlyZone>());
+		for(int round = 0; round < 20; round++) {
+			Coords start = randomCoords(random);
+			List<FlightPath> paths = new ArrayList<FlightPath>();
+			List<Feature> markers = new ArrayList<Feature>();
+			Coords from = start;
+			for(int leg = random.nextInt(4); leg > 0; leg--) {
+				Coords to = randomCoords(random);
+				FlightPath path = new FlightPath(from, to, noFly, "leg" + leg);
+				paths.add(path);
+				markers.add(marker(to, random));
+				from = path.getMoveList().getFinalPos();
+			}
+			assertSameJson(markers, start, paths);
+		}
+	}
+
+	@Test
+	public void emptyCollectionMatches() throws IOException {
+		StringWriter text = new StringWriter();
+		new GeoJSONWriter(text).close();
+		assertEquals(FeatureCollection.fromFeatures(new ArrayList<Feature>()).toJson(), text.toString());
+	}
+
+	private static void assertSameJson(List<Feature> markers, Coords start, List<FlightPath> paths) throws IOException {
+		List<Feature> features = new ArrayList<Feature>(markers);
+		features.add(new GeoJSONHandler(start).generatePath(paths));
+		var expected = FeatureCollection.fromFeatures(features).toJson();
+
+		StringWriter text = new StringWriter();
+		try(GeoJSONWriter writer = new GeoJSONWriter(text)) {
+			for(Feature marker : markers) {
+				writer.writeFeature(marker);
+			}
+			writer.writePath(start, paths);
+		}
+		assertEquals(expected, text.toString());
+	}
+
+	// Somewhere around the campus, a few hundred moves across
+	private static Coords randomCoords(Random random) {
+		return new Coords(-3.192473 + random.nextDouble() * 0.008154, 55.942617 + random.nextDouble() * 0.003616);
+	}
+
+	// A marker with properties that need escaping, which JsonWriter and toJson must treat alike
+	private static Feature marker(Coords coords, Random random) {
+		Feature marker = Feature.fromGeometry(Point.fromLngLat(coords.getLng(), coords.getLat()));
+		marker.addStringProperty("location", "a<b>&'c\"" + random.nextInt(1000));
+		marker.addStringProperty("marker-color", "#00ff00");
+		return marker;
+	}
+
+}
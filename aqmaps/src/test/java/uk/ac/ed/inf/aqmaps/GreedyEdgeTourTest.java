@@ -0,0 +1,137 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+// Checks that GreedyEdgeTour chooses exactly the circuit the original sorted edges loop in FlightController did, ties included
+public class GreedyEdgeTourTest {
+
+	@Test
+	public void campusMatchesOriginal() {
+		List<Coords> coords = new ArrayList<Coords>(TestFixtures.campusCoords());
+		coords.add(0, TestFixtures.CAMPUS_START);
+		NoFlyIndex noFly = new NoFlyIndex(TestFixtures.campusZones());
+		int[][] cost = new int[coords.size()][coords.size()];
+		for(int i = 0; i < coords.size(); i++) {
+			for(int j = 0; j < coords.size(); j++) {
+				if(i != j) cost[i][j] = FlightPath.estimate(coords.get(i), coords.get(j), noFly).getMoveCount();
+			}
+		}
+		assertSameOrder(cost);
+	}
+
+	@Test
+	public void randomMatricesMatchOriginal() {
+		Random random = new Random(61);
+		for(int round = 0; round < 400; round++) {
+			var n = 3 + random.nextInt(38);
+			// A narrow range of move counts gives many ties, which both must break the same way
+			var range = (round % 3 == 0) ? 3 : (round % 3 == 1) ? 20 : 500;
+			var symmetric = round % 2 == 0;
+			int[][] cost = new int[n][n];
+			for(int i = 0; i < n; i++) {
+				for(int j = 0; j < n; j++) {
+					if(i == j) continue;
+					cost[i][j] = (symmetric && j < i) ? cost[j][i] : random.nextInt(range);
+				}
+			}
+			assertSameOrder(cost);
+		}
+	}
+
+	@Test
+	public void equalCostsMatchOriginal() {
+		for(int n = 3; n <= 34; n++) {
+			int[][] cost = new int[n][n];
+			for(int[] row : cost) {
+				Arrays.fill(row, 7);
+			}
+			assertSameOrder(cost);
+		}
+	}
+
+	private static void assertSameOrder(int[][] cost) {
+		assertArrayEquals("Order for " + Arrays.deepToString(cost), originalOrder(cost), GreedyEdgeTour.build(cost));
+	}
+
+	// The original generateOrder, from before GreedyEdgeTour replaced it, taking move counts rather than a path matrix
+	// It repeatedly links the shortest edge from any node with fewer than two links, to a node with fewer than two links, which does not close a loop early.
+	// The original only ever handled the 34 nodes of a real day, but nothing else in it depended on the count.
+	private static int[] originalOrder(int[][] cost) {
+		final int n = cost.length;
+		int[][] connectivity = new int[n][n];
+		List<Integer> usedNodes = new ArrayList<Integer>();
+		List<Integer> fullNodes = new ArrayList<Integer>();
+		for(int i = 0; i < n; i++) {
+			usedNodes.add(i);
+		}
+
+		while(usedNodes.size() != 0) {
+			int[] shortest = {-1, -1, 99999};
+			for(int used : usedNodes) {
+				var shortestNode = 0;
+				var shortestDistance = 99999999;
+				for(int i = 0; i < n; i++) {
+					if(i != used && cost[used][i] < shortestDistance) {
+						if(!wouldCompleteLoopEarly(connectivity, used, i) && !fullNodes.contains(i)) {
+							shortestNode = i;
+							shortestDistance = cost[used][i];
+						}
+					}
+				}
+				if(shortestDistance < shortest[2]) {
+					shortest = new int[] {used, shortestNode, shortestDistance};
+				}
+			}
+			connectivity[shortest[0]][shortest[1]] = 1;
+			connectivity[shortest[1]][shortest[0]] = 1;
+
+			for(int node : usedNodes) {
+				if(Arrays.stream(connectivity[node]).sum() == 2) fullNodes.add(node);
+			}
+			for(int node : fullNodes) {
+				if(usedNodes.contains(node)) usedNodes.remove(usedNodes.indexOf(node));
+			}
+		}
+		return traverseConnections(connectivity, 0).stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private static boolean wouldCompleteLoopEarly(int[][] connectivity, int from, int to) {
+		List<Integer> connections = traverseConnections(connectivity, from);
+		return connections.get(connections.size() - 1) == to && connections.size() != connectivity.length;
+	}
+
+	private static List<Integer> traverseConnections(int[][] connectivity, int from) {
+		var prevNode = -1;
+		var currNode = from;
+		var nextNode = -1;
+		List<Integer> order = new ArrayList<Integer>();
+		order.add(from);
+		for(int i = 0; i < connectivity[from].length; i++) {
+			if(connectivity[from][i] == 1) {
+				nextNode = i;
+				order.add(nextNode);
+				break;
+			}
+		}
+		if(nextNode == -1) return order;
+		while(nextNode != currNode && nextNode != from) {
+			prevNode = currNode;
+			currNode = nextNode;
+			for(int i = 0; i < connectivity[currNode].length; i++) {
+				if(connectivity[currNode][i] == 1 && i != prevNode) {
+					nextNode = i;
+					order.add(nextNode);
+				}
+			}
+		}
+		return order;
+	}
+
+}
@@ -0,0 +1,130 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Checks that legs saved to the cache file are found again, by the same cache after each save and by a fresh one reading the file
+public class LegCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void savedLegsAreFoundAfterReopening() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("legs.cache");
+		List<Coords[]> legs = randomLegs(new Random(101), 200);
+		LegCache cache = new LegCache(file);
+		putAll(scope(cache), legs);
+		cache.save();
+
+		assertAllFound(scope(cache), legs);
+		LegCache reopened = new LegCache(file);
+		assertEquals(legs.size(), reopened.size());
+		assertAllFound(scope(reopened), legs);
+		assertNull(scope(reopened).get(new Coords(-3.19, 55.94), new Coords(-3.18, 55.95)));
+	}
+
+	// Each save replaces the file the cache has mapped, which must be unmapped first on Windows, and then maps the new one
+	@Test
+	public void repeatedSavesKeepEveryLeg() throws IOException {
+		Path file = folder.getRoot().toPath().resolve("legs.cache");
+		Random random = new Random(102);
+		LegCache cache = new LegCache(file);
+		List<Coords[]> all = new ArrayList<Coords[]>();
+		for(int round = 0; round < 5; round++) {
+			List<Coords[]> legs = randomLegs(random, 100);
+			putAll(scope(cache), legs);
+			all.addAll(legs);
+			cache.save();
+			assertEquals(all.size(), cache.size());
+			assertAllFound(scope(cache), all);
+		}
+		assertEquals(List.of(file), listFolder()); // No temporary files are left behind
+	}
+
+	@Test
+	public void lookupsContinueDuringSaves() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("legs.cache");
+		Random random = new Random(103);
+		LegCache cache = new LegCache(file);
+		List<Coords[]> saved = randomLegs(random, 300);
+		putAll(scope(cache), saved);
+		cache.save();
+
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread reader = new Thread(() -> {
+			try {
+				for(int pass = 0; pass < 200; pass++) {
+					assertAllFound(scope(cache), saved);
+				}
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		});
+		reader.start();
+		while(reader.isAlive()) {
+			putAll(scope(cache), randomLegs(random, 10));
+			cache.save();
+		}
+		reader.join();
+		if(failure.get() != null) throw new AssertionError("Lookup failed during a save", failure.get());
+	}
+
+	private static LegCache.Scope scope(LegCache cache) {
+		return cache.scope(TestFixtures.campusZones(), FlightPath.GREEDY);
+	}
+
+	// Pairs of points around the campus, each given a leg whose move count and end identify it
+	private static List<Coords[]> randomLegs(Random random, int count) {
+		List<Coords[]> legs = new ArrayList<Coords[]>();
+		for(int i = 0; i < count; i++) {
+			legs.add(new Coords[] {
+				new Coords(-3.192473 + random.nextDouble() * 0.008154, 55.942617 + random.nextDouble() * 0.003616),
+				new Coords(-3.192473 + random.nextDouble() * 0.008154, 55.942617 + random.nextDouble() * 0.003616)
+			});
+		}
+		return legs;
+	}
+
+	private static void putAll(LegCache.Scope scope, List<Coords[]> legs) {
+		for(Coords[] leg : legs) {
+			scope.put(leg[0], leg[1], expected(leg));
+		}
+	}
+
+	private static void assertAllFound(LegCache.Scope scope, List<Coords[]> legs) {
+		for(Coords[] leg : legs) {
+			LegEstimate found = scope.get(leg[0], leg[1]);
+			assertNotNull(found);
+			assertEquals(expected(leg).getMoveCount(), found.getMoveCount());
+			assertEquals(leg[1].getLng(), found.getEndPos().getLng(), 0);
+			assertEquals(leg[1].getLat(), found.getEndPos().getLat(), 0);
+		}
+	}
+
+	private static LegEstimate expected(Coords[] leg) {
+		return new LegEstimate(1 + (int) (Math.abs(leg[0].getLng() * 1e7) % 150), leg[1], leg[0].getLng(), leg[0].getLat(), leg[1].getLng(), leg[1].getLat());
+	}
+
+	private List<Path> listFolder() throws IOException {
+		try(Stream<Path> files = Files.list(folder.getRoot().toPath())) {
+			return files.collect(Collectors.toList());
+		}
+	}
+
+}
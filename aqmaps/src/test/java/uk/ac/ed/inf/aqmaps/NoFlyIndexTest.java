@@ -0,0 +1,148 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+// Checks that NoFlyIndex answers exactly as testing a segment against every edge of every zone does
+public class NoFlyIndexTest {
+
+	private static final int SEGMENTS = 20000;
+	private static final double MIN_CELL_SIZE = 0.0005; // As in NoFlyIndex, which uses the zones' bounds and this to place its grid
+
+	@Test
+	public void campusMatchesBruteForce() {
+		List<NoFlyZone> zones = TestFixtures.campusZones();
+		checkRandomSegments(zones, new Random(21));
+		checkCellBorders(zones, new Random(22));
+	}
+
+	// Zones spread over a wide area, so that the grid has its maximum number of cells and each is larger than the minimum
+	@Test
+	public void randomZonesMatchBruteForce() {
+		Random random = new Random(23);
+		for(int round = 0; round < 5; round++) {
+			List<NoFlyZone> zones = new ArrayList<NoFlyZone>();
+			var zoneCount = 1 + random.nextInt(40);
+			var spread = (round % 2 == 0) ? 0.003 : 2.0;
+			for(int z = 0; z < zoneCount; z++) {
+				zones.add(randomZone(random, spread));
+			}
+			checkRandomSegments(zones, random);
+			checkCellBorders(zones, random);
+		}
+	}
+
+	@Test
+	public void noZonesNeverIntersect() {
+		NoFlyIndex index = new NoFlyIndex(new ArrayList<NoFlyZone>());
+		assertEquals(false, index.intersects(-3.19, 55.94, -3.18, 55.95));
+		assertEquals(false, index.intersects(0, 0, 0, 0));
+	}
+
+	// Short moves and long segments crossing many cells, starting inside, on the edge of, and well outside the grid
+	private static void checkRandomSegments(List<NoFlyZone> zones, Random random) {
+		NoFlyIndex index = new NoFlyIndex(zones);
+		double[] bounds = bounds(zones);
+		var width = bounds[2] - bounds[0];
+		var height = bounds[3] - bounds[1];
+		for(int i = 0; i < SEGMENTS; i++) {
+			var margin = (i % 3 == 0) ? 0.5 : 0.05; // Some segments start well away from every zone
+			var x1 = bounds[0] - margin * width + random.nextDouble() * (1 + 2 * margin) * width;
+			var y1 = bounds[1] - margin * height + random.nextDouble() * (1 + 2 * margin) * height;
+			var length = (i % 4 == 0) ? random.nextDouble() * Math.max(width, height) : FlightPath.MOVE;
+			var angle = random.nextDouble() * 2 * Math.PI;
+			check(index, zones, x1, y1, x1 + length * Math.cos(angle), y1 + length * Math.sin(angle));
+		}
+		// Segments which are single points, including the zones' own corners
+		for(NoFlyZone zone : zones) {
+			for(int i = 0; i < zone.getPointCount(); i++) {
+				check(index, zones, zone.getLng(i), zone.getLat(i), zone.getLng(i), zone.getLat(i));
+				check(index, zones, zone.getLng(i), zone.getLat(i), zone.getLng(i) + FlightPath.MOVE, zone.getLat(i));
+			}
+		}
+	}
+
+	// Segments lying exactly on the lines between grid cells, and ending exactly on them
+	private static void checkCellBorders(List<NoFlyZone> zones, Random random) {
+		NoFlyIndex index = new NoFlyIndex(zones);
+		double[] bounds = bounds(zones);
+		var cellSize = Math.max(MIN_CELL_SIZE, Math.max(bounds[2] - bounds[0], bounds[3] - bounds[1]) / 1024);
+		var columns = (int) Math.ceil((bounds[2] - bounds[0]) / cellSize) + 1;
+		var rows = (int) Math.ceil((bounds[3] - bounds[1]) / cellSize) + 1;
+		for(int c = 0; c <= columns; c++) {
+			var x = bounds[0] + c * cellSize;
+			check(index, zones, x, bounds[1] - cellSize, x, bounds[3] + cellSize);
+			check(index, zones, x, bounds[1] + random.nextDouble() * (bounds[3] - bounds[1]), x, bounds[1] + random.nextDouble() * (bounds[3] - bounds[1]));
+		}
+		for(int r = 0; r <= rows; r++) {
+			var y = bounds[1] + r * cellSize;
+			check(index, zones, bounds[0] - cellSize, y, bounds[2] + cellSize, y);
+			check(index, zones, bounds[0] + random.nextDouble() * (bounds[2] - bounds[0]), y, bounds[0] + random.nextDouble() * (bounds[2] - bounds[0]), y);
+		}
+		for(int i = 0; i < SEGMENTS / 10; i++) {
+			var x1 = bounds[0] + random.nextInt(columns + 1) * cellSize;
+			var y1 = bounds[1] + random.nextInt(rows + 1) * cellSize;
+			var x2 = bounds[0] + random.nextInt(columns + 1) * cellSize;
+			var y2 = bounds[1] + random.nextInt(rows + 1) * cellSize;
+			check(index, zones, x1, y1, x2, y2);
+		}
+	}
+
+	private static void check(NoFlyIndex index, List<NoFlyZone> zones, double x1, double y1, double x2, double y2) {
+		var expected = bruteForce(zones, x1, y1, x2, y2);
+		assertEquals("Segment from (" + x1 + ", " + y1 + ") to (" + x2 + ", " + y2 + ")", expected, index.intersects(x1, y1, x2, y2));
+		var byZone = false;
+		for(NoFlyZone zone : zones) {
+			byZone |= zone.intersects(x1, y1, x2, y2);
+		}
+		assertEquals("Segment from (" + x1 + ", " + y1 + ") to (" + x2 + ", " + y2 + ") against each zone", expected, byZone);
+	}
+
+	// The loop the index replaced, testing every edge of every zone
+	private static boolean bruteForce(List<NoFlyZone> zones, double x1, double y1, double x2, double y2) {
+		for(NoFlyZone zone : zones) {
+			for(int i = 0; i < zone.getPointCount() - 1; i++) {
+				if(Line2D.linesIntersect(x1, y1, x2, y2, zone.getLng(i), zone.getLat(i), zone.getLng(i+1), zone.getLat(i+1))) return true;
+			}
+		}
+		return false;
+	}
+
+	// The bounds of every zone's corners, as min lng, min lat, max lng, max lat
+	private static double[] bounds(List<NoFlyZone> zones) {
+		double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+		for(NoFlyZone zone : zones) {
+			for(int i = 0; i < zone.getPointCount(); i++) {
+				bounds[0] = Math.min(bounds[0], zone.getLng(i));
+				bounds[1] = Math.min(bounds[1], zone.getLat(i));
+				bounds[2] = Math.max(bounds[2], zone.getLng(i));
+				bounds[3] = Math.max(bounds[3], zone.getLat(i));
+			}
+		}
+		return bounds;
+	}
+
+	// A closed ring of random points around a centre, which may be concave or cross itself
+	private static NoFlyZone randomZone(Random random, double spread) {
+		var lng = -3.19 + random.nextDouble() * spread;
+		var lat = 55.94 + random.nextDouble() * spread;
+		var corners = 3 + random.nextInt(8);
+		var size = (0.00005 + random.nextDouble() * 0.0005) * Math.max(1, spread);
+		double[] lngs = new double[corners + 1];
+		double[] lats = new double[corners + 1];
+		for(int i = 0; i < corners; i++) {
+			lngs[i] = lng + (random.nextDouble() - 0.5) * size;
+			lats[i] = lat + (random.nextDouble() - 0.5) * size;
+		}
+		lngs[corners] = lngs[0];
+		lats[corners] = lats[0];
+		return new NoFlyZone(lngs, lats, "zone");
+	}
+
+}
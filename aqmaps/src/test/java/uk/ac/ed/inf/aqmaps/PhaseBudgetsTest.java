@@ -0,0 +1,245 @@
+package uk.ac.ed.inf.aqmaps;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.mapbox.geojson.Feature;
+import com.mapbox.geojson.Point;
+import com.mapbox.geojson.Polygon;
+
+// Plans fixed days from start to finish and checks how much each phase allocates against its budget in src/test/resources/phase-budgets.properties
+// The path matrix, ordering, rebuild and output phases are measured through Metrics, which counts the bytes allocated by the thread running each phase.
+// Everything runs on the test's own thread (threads=1), so every allocation is counted. The median of the measured runs is compared with the budget, after unmeasured warmup runs.
+// Time budgets are advisory only: the times are printed, with any phase over its time budget, but never fail the build, because on a busy machine a phase of a
+// few milliseconds can easily take twice as long without any change to the code.
+// Pass -Dbudgets.skip=true to skip the check, or -Dbudgets.record=true to print the measurements as a new budgets file, with headroom added, instead of checking them.
+public class PhaseBudgetsTest {
+
+	private static final Metrics.Phase[] PHASES = {Metrics.Phase.MATRIX, Metrics.Phase.ORDERING, Metrics.Phase.REBUILD, Metrics.Phase.OUTPUT};
+	private static final int WARMUP = 20;
+	private static final int RUNS = 15;
+	// The headroom recording adds to what it measures. Allocation barely varies from run to run, while time depends on the machine and what else it is doing.
+	private static final double ALLOCATION_HEADROOM = 1.25;
+	private static final double TIME_HEADROOM = 4;
+	// Phases which take well under a millisecond are given a floor, so that a pause for garbage collection is not reported as slow
+	private static final long MIN_TIME_BUDGET = 5;
+
+	private static Properties budgets;
+	private static boolean record;
+
+	@BeforeClass
+	public static void loadBudgets() throws IOException {
+		assumeFalse("Skipped with -Dbudgets.skip=true", Boolean.getBoolean("budgets.skip"));
+		assumeTrue("This JVM cannot count the bytes allocated by a thread", Metrics.getThreadAllocatedBytes() != 0);
+		record = Boolean.getBoolean("budgets.record");
+		budgets = new Properties();
+		try(InputStream in = PhaseBudgetsTest.class.getResourceAsStream("/phase-budgets.properties")) {
+			if(in == null) throw new IOException("The bundled phase-budgets.properties is missing");
+			budgets.load(in);
+		}
+		if(record) {
+			System.out.println("# Budgets for PhaseBudgetsTest, recorded with " + WARMUP + " warmup and " + RUNS + " measured runs");
+		} else {
+			System.out.printf(Locale.ROOT, "%-20s %-9s %14s %14s %10s %10s%n", "fixture", "phase", "allocated", "budget", "millis", "budget");
+		}
+	}
+
+	@Test
+	public void campusWithinBudget() throws IOException {
+		check("campus", TestFixtures.campusZones(), TestFixtures.campusSensors(), TestFixtures.campusCoords(), TestFixtures.CAMPUS_START);
+	}
+
+	@Test
+	public void syntheticWithinBudget() throws IOException {
+		Synthetic day = new Synthetic(10, 60);
+		check("synthetic-10-60", day.zones, day.sensors, day.coords, day.start);
+	}
+
+	private static void check(String name, List<NoFlyZone> zones, Sensor[] sensors, List<Coords> coords, Coords start) throws IOException {
+		List<Feature> markers = markers(sensors, coords, start);
+		List<String> sensorNames = new ArrayList<String>();
+		sensorNames.add("null");
+		for(Sensor sensor : sensors) {
+			sensorNames.add(sensor.getLocation());
+		}
+
+		long[][] allocated = new long[PHASES.length][RUNS];
+		long[][] nanos = new long[PHASES.length][RUNS];
+		for(int run = -WARMUP; run < RUNS; run++) {
+			long[] allocatedBefore = new long[PHASES.length];
+			long[] nanosBefore = new long[PHASES.length];
+			for(int p = 0; p < PHASES.length; p++) {
+				allocatedBefore[p] = Metrics.getPhaseAllocatedBytes(PHASES[p]);
+				nanosBefore[p] = Metrics.getPhaseNanos(PHASES[p]);
+			}
+			planQuietly(zones, new ArrayList<Coords>(coords), start, sensorNames, markers);
+			if(run < 0) continue;
+			for(int p = 0; p < PHASES.length; p++) {
+				allocated[p][run] = Metrics.getPhaseAllocatedBytes(PHASES[p]) - allocatedBefore[p];
+				nanos[p][run] = Metrics.getPhaseNanos(PHASES[p]) - nanosBefore[p];
+			}
+		}
+
+		List<String> failures = new ArrayList<String>();
+		for(int p = 0; p < PHASES.length; p++) {
+			var key = name + "." + PHASES[p].getLabel();
+			var bytes = median(allocated[p]);
+			var millis = median(nanos[p]) / 1e6;
+			if(record) {
+				System.out.println(key + ".allocatedBytes=" + (long) Math.ceil(bytes * ALLOCATION_HEADROOM));
+				System.out.println(key + ".millis=" + Math.max(MIN_TIME_BUDGET, (long) Math.ceil(millis * TIME_HEADROOM)));
+				continue;
+			}
+			var bytesBudget = getBudget(key + ".allocatedBytes");
+			var millisBudget = getBudget(key + ".millis");
+			System.out.printf(Locale.ROOT, "%-20s %-9s %14d %14s %10.2f %10s%n", name, PHASES[p].getLabel(), bytes, format(bytesBudget), millis, format(millisBudget));
+			if(bytesBudget >= 0 && bytes > bytesBudget) failures.add(key + " allocated " + bytes + " bytes, over its budget of " + bytesBudget);
+			if(millisBudget >= 0 && millis > millisBudget) {
+				System.out.println("Slow, not failing: " + key + " took " + String.format(Locale.ROOT, "%.2f", millis) + " ms, over its budget of " + millisBudget);
+			}
+		}
+		assertTrue("Over budget: " + String.join(", ", failures), failures.isEmpty());
+	}
+
+	// Plans the day exactly as DayPlanner does with one thread and the default settings, writing both outputs to writers which discard them
+	@SuppressWarnings("try")
+	private static void planQuietly(List<NoFlyZone> zones, List<Coords> coords, Coords start, List<String> sensorNames, List<Feature> markers) throws IOException {
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			FlightController controller = new FlightController(zones, coords, start, sensorNames, 1);
+			List<FlightPath> paths = controller.generateOrder();
+			try(Metrics.Timer timer = Metrics.time(Metrics.Phase.OUTPUT)) {
+				try(FlightPathWriter writer = new FlightPathWriter(Writer.nullWriter())) {
+					writer.writePaths(paths);
+				}
+				try(GeoJSONWriter writer = new GeoJSONWriter(Writer.nullWriter())) {
+					for(Feature marker : markers) {
+						writer.writeFeature(marker);
+					}
+					writer.writePath(start, paths);
+				}
+			}
+		} finally {
+			System.setOut(console);
+		}
+	}
+
+	// Builds the sensor markers exactly as DayPlanner does
+	private static List<Feature> markers(Sensor[] sensors, List<Coords> coords, Coords start) {
+		GeoJSONHandler geo = new GeoJSONHandler(start);
+		List<Feature> markers = new ArrayList<Feature>();
+		for(int i = 0; i < sensors.length; i++) {
+			Feature marker = geo.generateMarker(sensors[i], coords.get(i));
+			marker.addStringProperty("text", Integer.toString(i + 1));
+			markers.add(marker);
+		}
+		return markers;
+	}
+
+	// Phases without a budget are reported but never fail
+	private static long getBudget(String key) {
+		var value = budgets.getProperty(key);
+		return (value == null) ? -1 : Long.parseLong(value.trim());
+	}
+
+	private static String format(long budget) {
+		return (budget < 0) ? "-" : Long.toString(budget);
+	}
+
+	private static long median(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[sorted.length / 2];
+	}
+
+	// A day of the given number of convex no-fly zones and sensors, generated inside the drone confinement area from a fixed seed
+	// This is the bench module's synthetic-Z-S fixture, so the two measure the same day. Zones are regular-sided polygons at random centres, kept far enough
+	// apart that the drone can always pass between them, and the sensors and start point are placed clear of every zone.
+	private static class Synthetic {
+
+		private static final double MIN_LNG = -3.192473;
+		private static final double MAX_LNG = -3.184319;
+		private static final double MIN_LAT = 55.942617;
+		private static final double MAX_LAT = 55.946233;
+		private static final double MOVE = 0.0003;
+		private static final double CLOSE_RANGE = 0.0002;
+
+		private final List<NoFlyZone> zones = new ArrayList<NoFlyZone>();
+		private final Sensor[] sensors;
+		private final List<Coords> coords = new ArrayList<Coords>();
+		private final Coords start;
+
+		Synthetic(int zoneCount, int sensorCount) {
+			Random random = new Random(31L * zoneCount + sensorCount);
+			final double margin = MOVE;
+			List<double[]> circles = new ArrayList<double[]>(); // centre lng, centre lat, radius
+			for(int attempt = 0; zones.size() < zoneCount && attempt < 100000; attempt++) {
+				var radius = 0.00005 + random.nextDouble() * 0.0001;
+				var lng = MIN_LNG + margin + radius + random.nextDouble() * (MAX_LNG - MIN_LNG - 2 * (margin + radius));
+				var lat = MIN_LAT + margin + radius + random.nextDouble() * (MAX_LAT - MIN_LAT - 2 * (margin + radius));
+				if(nearCircle(circles, lng, lat, radius + MOVE)) continue;
+				circles.add(new double[] {lng, lat, radius});
+				zones.add(polygon("zone" + zones.size(), lng, lat, radius, 4 + random.nextInt(6), random.nextDouble() * 2 * Math.PI));
+			}
+			if(zones.size() < zoneCount) {
+				throw new IllegalArgumentException("Could not fit " + zoneCount + " zones in the confinement area");
+			}
+
+			sensors = new Sensor[sensorCount];
+			for(int i = 0; i < sensorCount; i++) {
+				sensors[i] = new Sensor("s" + i + ".synthetic.fixture", random.nextDouble() * 100, String.format(Locale.ROOT, "%.2f", random.nextDouble() * 255));
+				coords.add(freePoint(random, circles));
+			}
+			start = freePoint(random, circles);
+		}
+
+		private static NoFlyZone polygon(String name, double lng, double lat, double radius, int sides, double rotation) {
+			List<Point> ring = new ArrayList<Point>();
+			for(int i = 0; i < sides; i++) {
+				var angle = rotation + 2 * Math.PI * i / sides;
+				ring.add(Point.fromLngLat(lng + radius * Math.cos(angle), lat + radius * Math.sin(angle)));
+			}
+			ring.add(ring.get(0));
+			List<List<Point>> rings = new ArrayList<List<Point>>();
+			rings.add(ring);
+			return new NoFlyZone(Polygon.fromLngLats(rings), name);
+		}
+
+		private static Coords freePoint(Random random, List<double[]> circles) {
+			while(true) {
+				var lng = MIN_LNG + MOVE + random.nextDouble() * (MAX_LNG - MIN_LNG - 2 * MOVE);
+				var lat = MIN_LAT + MOVE + random.nextDouble() * (MAX_LAT - MIN_LAT - 2 * MOVE);
+				if(!nearCircle(circles, lng, lat, CLOSE_RANGE + MOVE)) {
+					return new Coords(lng, lat);
+				}
+			}
+		}
+
+		// Checks whether a point is within the given clearance of the edge of any circle
+		private static boolean nearCircle(List<double[]> circles, double lng, double lat, double clearance) {
+			for(double[] c : circles) {
+				if(Math.hypot(lng - c[0], lat - c[1]) < c[2] + clearance) return true;
+			}
+			return false;
+		}
+
+	}
+
+}
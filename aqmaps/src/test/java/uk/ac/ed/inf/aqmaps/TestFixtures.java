@@ -0,0 +1,91 @@
+package uk.ac.ed.inf.aqmaps;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.mapbox.geojson.Feature;
+
+// The campus day bundled in src/test/resources/fixtures/campus (4 zones, 33 sensors), as the tests' inputs
+// The files are copies of those behind the bench module's campus fixture.
+class TestFixtures {
+
+	static final Coords CAMPUS_START = new Coords(-3.1878, 55.9444);
+
+	static List<NoFlyZone> campusZones() {
+		try(JsonReader reader = new JsonReader(open("no-fly-zones.geojson"))) {
+			return ServerDataReader.readNoFlyZones(reader);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	static Sensor[] campusSensors() {
+		try(InputStreamReader reader = open("air-quality-data.json")) {
+			return new Gson().fromJson(reader, Sensor[].class);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	// The coordinates of every campus sensor, in the same order as campusSensors
+	static List<Coords> campusCoords() {
+		JsonObject words;
+		try(InputStreamReader reader = open("words.json")) {
+			words = new Gson().fromJson(reader, JsonObject.class);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		List<Coords> coords = new ArrayList<Coords>();
+		for(Sensor sensor : campusSensors()) {
+			JsonObject point = words.getAsJsonObject(sensor.getLocation());
+			coords.add(new Coords(point.get("lng").getAsDouble(), point.get("lat").getAsDouble()));
+		}
+		return coords;
+	}
+
+	// The names FlightController expects alongside the sensors' coordinates, with "null" for the start point first
+	static List<String> campusSensorNames() {
+		List<String> names = new ArrayList<String>();
+		names.add("null");
+		for(Sensor sensor : campusSensors()) {
+			names.add(sensor.getLocation());
+		}
+		return names;
+	}
+
+	// The markers DayPlanner gives the campus sensors, numbered in order
+	static List<Feature> campusMarkers() {
+		GeoJSONHandler geo = new GeoJSONHandler(CAMPUS_START);
+		Sensor[] sensors = campusSensors();
+		List<Coords> coords = campusCoords();
+		List<Feature> markers = new ArrayList<Feature>();
+		for(int i = 0; i < sensors.length; i++) {
+			Feature marker = geo.generateMarker(sensors[i], coords.get(i));
+			marker.addStringProperty("text", Integer.toString(i + 1));
+			markers.add(marker);
+		}
+		return markers;
+	}
+
+	// The campus flight, planned on one thread without the time limited improvements so that it is the same on every run
+	static List<FlightPath> campusPaths() {
+		FlightController controller = new FlightController(campusZones(), campusCoords(), CAMPUS_START, campusSensorNames(), 1);
+		controller.setImprovementBudget(0);
+		return controller.generateOrder();
+	}
+
+	private static InputStreamReader open(String file) throws IOException {
+		InputStream in = TestFixtures.class.getResourceAsStream("/fixtures/campus/" + file);
+		if(in == null) throw new IOException("Missing fixture resource " + file);
+		return new InputStreamReader(in, StandardCharsets.UTF_8);
+	}
+
+}